@@ -26,10 +26,12 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
@@ -51,14 +53,16 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
 
     private static final String LOG_TAG = EarthquakeActivity.class.getName();
     private static final int EARTHQUAKE_LOADER_ID = 1;
-    private static String requestUrl = "https://earthquake.usgs.gov/fdsnws/event/1/query"; // ?format=geojson&orderby=time&minmag=6&limit=20
     private QuakeAdapter earthquakeAdapter;
+    private QuakeDetailPrefetcher detailPrefetcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
+        detailPrefetcher = new QuakeDetailPrefetcher(this);
+
         // EarthquakeAsyncTask task = new EarthquakeAsyncTask();
         // task.execute(requestUrl);
 
@@ -85,6 +89,12 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        detailPrefetcher.shutdown();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
@@ -105,15 +115,27 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     /** Method to update UI after list of earthquakes is fetched from request url
      *  Uses custom ArrayAdapter to dissplay list of earthquakes
      *  OnItemClickListener handles touch input on a specific earthquake
+     *  OnScrollListener keeps the detail prefetcher in step with the visible rows
      * @param quakes List of earthquakes fetched
      */
     private void updateUi(final List<Quake> quakes) {
 
+        /** A refresh replaces the contents of the existing adapter, so the ListView keeps its
+         *  scroll position. The adapter holds its own copy, as ArrayAdapter changes the list
+         *  it is given and this one belongs to the loader.
+         */
+        if (earthquakeAdapter != null) {
+            earthquakeAdapter.clear();
+            earthquakeAdapter.addAll(quakes);
+            detailPrefetcher.setQuakes(quakes);
+            return;
+        }
+
         // Find a reference to the {@link ListView} in the layout
         ListView earthquakeListView = (ListView) findViewById(R.id.list);
 
         // Create a new {@link ArrayAdapter} of earthquakes
-        earthquakeAdapter = new QuakeAdapter(this, quakes);
+        earthquakeAdapter = new QuakeAdapter(this, new ArrayList<>(quakes));
 
         // Set the TextView for empty screen to be shown when there is no data in the adapter
         earthquakeListView.setEmptyView(findViewById(R.id.emptyView));
@@ -125,12 +147,40 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Quake currQuake = quakes.get(position);
-                String url = currQuake.getUrl(EarthquakeActivity.this);
+                Quake currQuake = earthquakeAdapter.getItem(position);
+
+                // Events without an id cannot be looked up, fall back to the event page
+                if (TextUtils.isEmpty(currQuake.getId())) {
+                    Intent quakeData = new Intent(Intent.ACTION_VIEW);
+                    quakeData.setData(Uri.parse(currQuake.getUrl(EarthquakeActivity.this)));
+                    startActivity(quakeData);
+                    return;
+                }
+
+                Intent detailIntent = new Intent(EarthquakeActivity.this, QuakeDetailActivity.class);
+                detailIntent.putExtra(QuakeDetailActivity.EXTRA_EVENT_ID, currQuake.getId());
+                startActivity(detailIntent);
+            }
+        });
+
+        detailPrefetcher.setQuakes(quakes);
+        earthquakeListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                /** Rows flying past during a fling are not worth fetching; plan again once
+                 *  the list has settled
+                 */
+                if (scrollState == SCROLL_STATE_FLING) {
+                    detailPrefetcher.pause();
+                } else if (scrollState == SCROLL_STATE_IDLE) {
+                    detailPrefetcher.resume();
+                    detailPrefetcher.onViewportChanged(view.getFirstVisiblePosition(), view.getChildCount());
+                }
+            }
 
-                Intent quakeData = new Intent(Intent.ACTION_VIEW);
-                quakeData.setData(Uri.parse(url));
-                startActivity(quakeData);
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                detailPrefetcher.onViewportChanged(firstVisibleItem, visibleItemCount);
             }
         });
     }
@@ -198,16 +248,36 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
                 getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default));
 
-        Uri baseUri = Uri.parse(requestUrl);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
+        /** The queries are kept apart from any endpoint, as every provider in
+         *  getProviders() is sent the same ones. orderby is given once,
+         *  as the merged list is sorted by the same key. The time window is added by
+         *  EarthquakeLoader on every load, so that a refresh reaches up to the present.
+         */
+        Uri.Builder uriBuilder = new Uri.Builder();
 
-        uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("orderby", "time");
         uriBuilder.appendQueryParameter("minmag", minMagnitude);
-        uriBuilder.appendQueryParameter("limit", limit);
         uriBuilder.appendQueryParameter("orderby", orderBy);
 
-        return new EarthquakeLoader(this, uriBuilder.toString());
+        /** Format and limit are left to the RequestPlanner, which sizes the request to the
+         *  current network. The limit from the settings is the most it will ask for.
+         */
+        int requestedLimit;
+        try {
+            requestedLimit = Math.max(1, Integer.parseInt(limit.trim()));
+        } catch (NumberFormatException e) {
+            requestedLimit = Integer.parseInt(getString(R.string.settings_limit_default));
+        }
+
+        return new EarthquakeLoader(this, getProviders(), uriBuilder.build().getEncodedQuery(), orderBy,
+                requestedLimit);
+    }
+
+    /** Providers the list is requested from. Overriding this points the list at other
+     *  servers, such as local stubs in a test.
+     * @return Providers in order of preference
+     */
+    protected List<FdsnProvider> getProviders() {
+        return FdsnProvider.getDefaultProviders();
     }
 
     @Override
@@ -230,7 +300,9 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     @Override
     public void onLoaderReset(android.content.Loader<List<Quake>> loader) {
         Log.v(LOG_TAG, "onLoaderReset called here ");
-        earthquakeAdapter.clear();
+        if (earthquakeAdapter != null) {
+            earthquakeAdapter.clear();
+        }
     }
 
 
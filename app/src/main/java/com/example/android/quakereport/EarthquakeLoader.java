@@ -7,11 +7,9 @@ import android.util.Log;
 //import androidx.loader.content.AsyncTaskLoader;
 import android.app.LoaderManager;
 
-import org.json.JSONException;
-
-import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /** We have used android.content.AsyncTaskLoader instead of androidx.loader.content.AsyncTaskLoader
@@ -21,50 +19,152 @@ import java.util.List;
 public class EarthquakeLoader extends AsyncTaskLoader<List<Quake>> {
 
     private static final String TAG = EarthquakeLoader.class.getSimpleName();
-    private String mUrl = null;
+
+    /** Days of earthquakes asked for, the window USGS uses when none is given       */
+    private static final int WINDOW_DAYS = 30;
+
+    /** Most earthquakes asked for by the alert query, on a link fast enough for them      */
+    private static final int ALERT_LIMIT = 1000;
+
+    private List<FdsnProvider> mProviders = null;
+    private String mEncodedQuery = null;
+    private String mOrderBy = null;
+    private int mRequestedLimit;
+    private List<Quake> mQuakes = null;
 
     /** Constructor for EarthquakeLoader class
      * @param context COntext from where Loader is called
-     * @param url The request url ot make request
+     * @param providers Providers to query, in order of preference
+     * @param encodedQuery Filter queries, without format and limit, which are chosen by
+     *                     {@link RequestPlanner} on every load, and without the time window,
+     *                     which ends at the time of each load
+     * @param orderBy Value of the orderby query, which the merged list is sorted by as well
+     * @param requestedLimit Number of earthquakes the user asked for
      *            We cannot directly pass params like AsyncTask, thus we pass it through constructor
      */
-    public EarthquakeLoader(Context context, String url) {
+    public EarthquakeLoader(Context context, List<FdsnProvider> providers, String encodedQuery,
+                            String orderBy, int requestedLimit) {
         super(context);
-        mUrl = url;
+        mProviders = providers;
+        mEncodedQuery = encodedQuery;
+        mOrderBy = orderBy;
+        mRequestedLimit = requestedLimit;
     }
 
     /** LoadInBackground is equivalent to AsyncTask's doInBackground
+     *  The request is planned for the current network and sent to every provider by a
+     *  {@link FederatedQuery}, with the same time window for all of them, so that no provider
+     *  fills the list with events from before the others' window. The user's geofences are
+     *  checked by a query of their own, then the merged list is sorted and cut to the planned
+     *  limit.
      * @return List of earthquakes
      */
     @Override
     public List<Quake> loadInBackground() {
         Log.v(TAG, "loadInBackground called here ");
-        if (mUrl == null) {
+        if (mProviders == null || mProviders.isEmpty() || mEncodedQuery == null) {
             return null;
         }
 
-        // Create URL object from request url string
-        URL url = QueryUtils.createUrl(mUrl);
+        RequestPlanner planner = RequestPlanner.getInstance();
+        planner.updateNetwork(getContext());
+        RequestPlanner.Plan plan = planner.plan(mRequestedLimit, mProviders.size());
 
-        String jsonResponse = "";
-        try {
-            jsonResponse = QueryUtils.makeHttpRequest(url);
-        } catch (IOException e) {
-            Log.e(TAG, "Error in getting earthquake data", e);
+        String query = mEncodedQuery + "&" + QueryUtils.buildTimeWindowQuery(System.currentTimeMillis(), WINDOW_DAYS);
+        ArrayList<Quake> earthquakeList = new FederatedQuery(mProviders, query, planner).fetch(plan);
+        if (earthquakeList == null) {
+            return null;
         }
 
-        ArrayList<Quake> earthquakeList = QueryUtils.extractEarthquakes(jsonResponse);
+        GeofenceEngine geofenceEngine = GeofenceStore.getEngine(getContext());
+        if (!geofenceEngine.isEmpty()) {
+            checkGeofences(planner, geofenceEngine, earthquakeList);
+        }
 
+        Collections.sort(earthquakeList, comparatorFor(mOrderBy));
+        if (earthquakeList.size() > plan.getLimit()) {
+            earthquakeList = new ArrayList<>(earthquakeList.subList(0, plan.getLimit()));
+        }
         return earthquakeList;
     }
 
+    /** Helper method to check the recent earthquakes against the user's fences.
+     *  The list only holds what passes the display filters, which are usually well above the
+     *  fences' thresholds, and is cut to a page. So the fences get a query of their own, for
+     *  everything since the last check down to the lowest threshold of any fence. When that
+     *  query gets no answer, the list is checked instead.
+     * @param planner Planner the alert query is sized by
+     * @param geofenceEngine Fences to check
+     * @param earthquakeList Merged list of the display query, before it is cut
+     */
+    private void checkGeofences(RequestPlanner planner, GeofenceEngine geofenceEngine,
+                                ArrayList<Quake> earthquakeList) {
+        long now = System.currentTimeMillis();
+        String query = "minmag=" + geofenceEngine.getMinMagnitude() + "&orderby=time&"
+                + QueryUtils.buildTimeRangeQuery(GeofenceNotifier.getCheckStart(getContext(), now), now);
+        RequestPlanner.Plan plan = planner.plan(ALERT_LIMIT, mProviders.size());
+
+        List<Quake> alertList = new FederatedQuery(mProviders, query, planner).fetch(plan);
+        if (alertList != null) {
+            GeofenceNotifier.setChecked(getContext(), now);
+        } else {
+            Log.v(TAG, "alert query got no answer, checking the list instead ");
+            alertList = earthquakeList;
+        }
+        GeofenceNotifier.notify(getContext(), geofenceEngine.evaluate(alertList));
+    }
+
+    /** Helper method to order the merged list the way each provider was asked to order its own,
+     *  newest or largest first
+     * @param orderBy Value of the orderby query, time or magnitude
+     * @return Comparator for the merged list
+     */
+    private static Comparator<Quake> comparatorFor(String orderBy) {
+        if ("magnitude".equals(orderBy)) {
+            return new Comparator<Quake>() {
+                @Override
+                public int compare(Quake a, Quake b) {
+                    return Double.compare(b.getMagnitude(null), a.getMagnitude(null));
+                }
+            };
+        }
+        return new Comparator<Quake>() {
+            @Override
+            public int compare(Quake a, Quake b) {
+                return Long.compare(b.getTimeInMillis(), a.getTimeInMillis());
+            }
+        };
+    }
+
+    /** Keep the delivered list, so a later start can show it without going to the network    */
+    @Override
+    public void deliverResult(List<Quake> quakes) {
+        mQuakes = quakes;
+        super.deliverResult(quakes);
+    }
+
     /** This method is implemented to trigger start of Loader by calling forceLoad(), which in
      *  turn invokes the onForceLoad() callback that in turn calls the loadInBackground() on
      *  a worker thread to start background task
+     *  If a list was already loaded it is delivered again right away, and refreshing it is
+     *  left to {@link RequestPlanner}, which skips recent lists and limits refreshes on
+     *  metered links.
      */
     @Override
     protected void onStartLoading() {
         Log.v(TAG, "onStartLoading called here ");
-        forceLoad();
+        if (mQuakes == null) {
+            forceLoad();
+            return;
+        }
+
+        deliverResult(mQuakes);
+        RequestPlanner planner = RequestPlanner.getInstance();
+        planner.updateNetwork(getContext());
+        if (planner.allowRefresh(planner.plan(mRequestedLimit, mProviders.size()))) {
+            forceLoad();
+        } else {
+            Log.v(TAG, "refresh skipped, list is recent or over the metered budget ");
+        }
     }
 }
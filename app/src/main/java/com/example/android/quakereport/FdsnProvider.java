@@ -0,0 +1,78 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** An FDSN event web service the earthquake list is requested from.
+ *  Every FDSN provider understands the standard query parameters and the pipe separated text
+ *  format; GeoJSON and the per-event detail used by {@link QuakeDetailActivity} are USGS
+ *  extensions, so each provider says whether it has them.
+ */
+public class FdsnProvider {
+
+    private String mName;
+    private String mQueryUrl;
+    private String mEventPageUrl;
+    private boolean mGeoJsonSupported;
+    private boolean mEventDetailSupported;
+
+    /** Constructor for class FdsnProvider
+     *
+     * @param name Short name of the provider, used in logs
+     * @param queryUrl Url of the fdsnws/event/1/query endpoint
+     * @param eventPageUrl Url the event id is appended to, to get the event web page
+     * @param geoJsonSupported Whether the endpoint answers format=geojson
+     * @param eventDetailSupported Whether the event ids can be looked up with the USGS detail query
+     */
+    public FdsnProvider(String name, String queryUrl, String eventPageUrl,
+                        boolean geoJsonSupported, boolean eventDetailSupported) {
+        mName = name;
+        mQueryUrl = queryUrl;
+        mEventPageUrl = eventPageUrl;
+        mGeoJsonSupported = geoJsonSupported;
+        mEventDetailSupported = eventDetailSupported;
+    }
+
+    /** Providers queried for the earthquake list, in order of preference. When providers
+     *  report the same event, the one from the provider listed first is kept.
+     */
+    public static List<FdsnProvider> getDefaultProviders() {
+        List<FdsnProvider> providers = new ArrayList<>();
+        providers.add(new FdsnProvider("USGS",
+                "https://earthquake.usgs.gov/fdsnws/event/1/query",
+                "https://earthquake.usgs.gov/earthquakes/eventpage/",
+                true, true));
+        providers.add(new FdsnProvider("EMSC",
+                "https://www.seismicportal.eu/fdsnws/event/1/query",
+                "https://www.seismicportal.eu/eventdetails.html?unid=",
+                false, false));
+        return providers;
+    }
+
+    /** Apply the filter query parameters to the endpoint of this provider
+     * @param encodedQuery Filter query parameters, already url encoded
+     * @return Query url for this provider
+     */
+    public String buildQueryUrl(String encodedQuery) {
+        if (encodedQuery == null || encodedQuery.isEmpty()) {
+            return mQueryUrl;
+        }
+        return mQueryUrl + "?" + encodedQuery;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getEventPageUrl() {
+        return mEventPageUrl;
+    }
+
+    public boolean isGeoJsonSupported() {
+        return mGeoJsonSupported;
+    }
+
+    public boolean isEventDetailSupported() {
+        return mEventDetailSupported;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** One query sent to several {@link FdsnProvider}s at once.
+ *  Every shard of every provider, as laid out by a {@link RequestPlanner.Plan}, is fetched in
+ *  parallel. The lists are joined per provider in shard order and merged by
+ *  {@link QuakeMerger} to drop events reported by more than one provider.
+ *  Nothing here needs a Context, so the whole fetch can be run against local servers in tests.
+ */
+public class FederatedQuery {
+
+    private static final String TAG = FederatedQuery.class.getSimpleName();
+    /** Most requests in flight at once, over all providers and shards      */
+    private static final int MAX_PARALLEL_REQUESTS = 6;
+
+    private final List<FdsnProvider> mProviders;
+    private final String mEncodedQuery;
+    private final RequestPlanner mPlanner;
+
+    /** Constructor for class FederatedQuery
+     * @param providers Providers to query, in order of preference
+     * @param encodedQuery Filter queries sent to every provider, without format and limit,
+     *                     which are taken from the plan
+     * @param planner Planner the load is reported to
+     */
+    public FederatedQuery(List<FdsnProvider> providers, String encodedQuery, RequestPlanner planner) {
+        mProviders = providers;
+        mEncodedQuery = encodedQuery;
+        mPlanner = planner;
+    }
+
+    /** Fetch every shard of every provider and merge the results. Called on a worker thread.
+     * @param plan Plan for the current network, from {@link RequestPlanner#plan}
+     * @return Merged list of earthquakes, unsorted, or null if no provider answered
+     */
+    public ArrayList<Quake> fetch(final RequestPlanner.Plan plan) {
+        final RequestPlanner.LoadStats stats = mPlanner.startLoad();
+
+        List<Callable<ArrayList<Quake>>> requests = new ArrayList<>();
+        List<Integer> requestProviders = new ArrayList<>();
+        for (int i = 0; i < mProviders.size(); ++i) {
+            final FdsnProvider provider = mProviders.get(i);
+            final String format = provider.isGeoJsonSupported() ? plan.getFormat() : RequestPlanner.FORMAT_TEXT;
+            for (final String shardUrl : plan.buildShardUrls(provider.buildQueryUrl(mEncodedQuery), format)) {
+                requests.add(new Callable<ArrayList<Quake>>() {
+                    @Override
+                    public ArrayList<Quake> call() {
+                        return loadShard(shardUrl, format, plan.isGzip(), provider, stats);
+                    }
+                });
+                requestProviders.add(i);
+            }
+        }
+
+        List<List<Quake>> providerLists = new ArrayList<>();
+        for (int i = 0; i < mProviders.size(); ++i) {
+            providerLists.add(null);
+        }
+
+        int connections = Math.min(requests.size(), MAX_PARALLEL_REQUESTS);
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            List<Future<ArrayList<Quake>>> results = executor.invokeAll(requests);
+            for (int r = 0; r < results.size(); ++r) {
+                int provider = requestProviders.get(r);
+                /** A failed shard only loses its own events, the other shards and providers
+                 *  are still merged
+                 */
+                ArrayList<Quake> shardList;
+                try {
+                    shardList = results.get(r).get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Error in getting earthquake data from "
+                            + mProviders.get(provider).getName(), e.getCause());
+                    continue;
+                }
+                if (shardList == null) {
+                    continue;
+                }
+                if (providerLists.get(provider) == null) {
+                    providerLists.set(provider, new ArrayList<Quake>());
+                }
+                providerLists.get(provider).addAll(shardList);
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while getting earthquake data", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        mPlanner.recordLoad(stats, connections);
+
+        // Same as a single provider: nothing to show if no provider answered
+        boolean anyAnswered = false;
+        for (List<Quake> providerList : providerLists) {
+            anyAnswered |= providerList != null;
+        }
+        if (!anyAnswered) {
+            return null;
+        }
+        return QuakeMerger.merge(providerLists);
+    }
+
+    /** Helper method to fetch and parse one shard of a provider
+     * @param shardUrl Request url of the shard
+     * @param format Format the shard is requested in
+     * @param gzip Whether to ask for a compressed response
+     * @param provider Provider the shard is requested from
+     * @param stats Stats of the load the shard belongs to
+     * @return List of earthquakes of the shard
+     */
+    private ArrayList<Quake> loadShard(String shardUrl, String format, boolean gzip, FdsnProvider provider,
+                                       RequestPlanner.LoadStats stats) {
+        // Create URL object from request url string
+        URL url = QueryUtils.createUrl(shardUrl);
+
+        String response = "";
+        try {
+            response = QueryUtils.makeHttpRequest(url, gzip, stats);
+        } catch (IOException e) {
+            Log.e(TAG, "Error in getting earthquake data from " + provider.getName(), e);
+        }
+        // A failed request leaves the body empty, which is no answer rather than no earthquakes
+        if (response == null || response.isEmpty()) {
+            return null;
+        }
+
+        ArrayList<Quake> earthquakeList;
+        if (RequestPlanner.FORMAT_TEXT.equals(format)) {
+            earthquakeList = QueryUtils.extractEarthquakesFromText(response, provider);
+        } else {
+            earthquakeList = QueryUtils.extractEarthquakes(response);
+        }
+
+        if (earthquakeList != null) {
+            mPlanner.recordPage(format, response.length(), earthquakeList.size());
+        }
+        return earthquakeList;
+    }
+}
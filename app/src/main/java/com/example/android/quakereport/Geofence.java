@@ -0,0 +1,293 @@
+package com.example.android.quakereport;
+
+/** A user-defined area to be alerted about: a circle of some km around a site, or a polygon.
+ *  Only earthquakes of at least the fence's minimum magnitude inside it raise an alert.
+ *  Everything the containment check needs is computed once here, as a fence is checked
+ *  against every event of every load.
+ */
+public class Geofence {
+
+    public static final int TYPE_CIRCLE = 0;
+    public static final int TYPE_POLYGON = 1;
+
+    private static final double KM_PER_DEGREE = 111.19;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private String mId;
+    private String mName;
+    private double mMinMagnitude;
+    private int mType;
+
+    private double mCenterLat;
+    private double mCenterLon;
+    private double mRadiusKm;
+    private double mCosCenterLat;
+    /** Squared chord length, on the unit sphere, of the radius      */
+    private double mRadiusChord2;
+
+    /** Polygon vertices, with longitudes unwrapped so the polygon never jumps across +-180     */
+    private double[] mLats;
+    private double[] mLons;
+    /** For a polygon going all the way around a pole, the latitude of that pole, otherwise 0    */
+    private double mPoleLat;
+
+    /** Bounding box. mMinLon may be below -180 and mMaxLon above 180 for shapes across the
+     *  antimeridian; a span of 360 means every longitude.
+     */
+    private double mMinLat;
+    private double mMaxLat;
+    private double mMinLon;
+    private double mMaxLon;
+
+    private Geofence(String id, String name, double minMagnitude, int type) {
+        mId = id;
+        mName = name;
+        mMinMagnitude = minMagnitude;
+        mType = type;
+    }
+
+    /** Create a circular fence
+     * @param id Unique id of the fence
+     * @param name Name shown in alerts
+     * @param minMagnitude Smallest magnitude to alert about
+     * @param latitude Latitude of the center in degrees
+     * @param longitude Longitude of the center in degrees
+     * @param radiusKm Radius in km
+     * @throws IllegalArgumentException if a coordinate is out of range or the radius is not
+     *         positive
+     */
+    public static Geofence circle(String id, String name, double minMagnitude,
+                                  double latitude, double longitude, double radiusKm) {
+        checkCoordinates(latitude, longitude);
+        if (!(radiusKm > 0) || Double.isInfinite(radiusKm)) {
+            throw new IllegalArgumentException("Radius must be positive: " + radiusKm);
+        }
+        Geofence fence = new Geofence(id, name, minMagnitude, TYPE_CIRCLE);
+        fence.mCenterLat = latitude;
+        fence.mCenterLon = longitude;
+        fence.mRadiusKm = radiusKm;
+        fence.mCosCenterLat = Math.cos(Math.toRadians(latitude));
+        double halfChord = Math.sin(Math.min(Math.PI, radiusKm / EARTH_RADIUS_KM) / 2);
+        fence.mRadiusChord2 = 4 * halfChord * halfChord;
+
+        double latSpan = radiusKm / KM_PER_DEGREE;
+        fence.mMinLat = Math.max(-90, latitude - latSpan);
+        fence.mMaxLat = Math.min(90, latitude + latSpan);
+        if (fence.mMinLat <= -90 || fence.mMaxLat >= 90) {
+            // A circle around a pole covers every longitude
+            fence.mMinLon = -180;
+            fence.mMaxLon = 180;
+        } else {
+            double widestCos = Math.cos(Math.toRadians(Math.max(Math.abs(fence.mMinLat), Math.abs(fence.mMaxLat))));
+            double lonSpan = Math.min(180, latSpan / widestCos);
+            fence.mMinLon = longitude - lonSpan;
+            fence.mMaxLon = longitude + lonSpan;
+        }
+        return fence;
+    }
+
+    /** Create a polygon fence. Edges are straight lines in latitude / longitude.
+     *  A ring going all the way around the globe, such as one drawn around Antarctica, encloses
+     *  a pole: the one on the side of its mean latitude.
+     * @param id Unique id of the fence
+     * @param name Name shown in alerts
+     * @param minMagnitude Smallest magnitude to alert about
+     * @param latitudes Latitudes of the vertices in degrees
+     * @param longitudes Longitudes of the vertices in degrees, same length as latitudes
+     * @throws IllegalArgumentException if there are fewer than 3 vertices or a coordinate is
+     *         out of range
+     */
+    public static Geofence polygon(String id, String name, double minMagnitude,
+                                   double[] latitudes, double[] longitudes) {
+        if (latitudes.length < 3 || latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices with both coordinates");
+        }
+        for (int i = 0; i < latitudes.length; ++i) {
+            checkCoordinates(latitudes[i], longitudes[i]);
+        }
+        Geofence fence = new Geofence(id, name, minMagnitude, TYPE_POLYGON);
+        int count = latitudes.length;
+        fence.mLats = latitudes.clone();
+        fence.mLons = new double[count];
+
+        /** Each vertex is moved by a multiple of 360 to be closest to the previous one, so an
+         *  edge across the antimeridian stays short
+         */
+        fence.mLons[0] = longitudes[0];
+        fence.mMinLat = fence.mMaxLat = latitudes[0];
+        fence.mMinLon = fence.mMaxLon = longitudes[0];
+        for (int i = 1; i < count; ++i) {
+            double lon = longitudes[i];
+            lon += 360 * Math.round((fence.mLons[i - 1] - lon) / 360);
+            fence.mLons[i] = lon;
+            fence.mMinLat = Math.min(fence.mMinLat, latitudes[i]);
+            fence.mMaxLat = Math.max(fence.mMaxLat, latitudes[i]);
+            fence.mMinLon = Math.min(fence.mMinLon, lon);
+            fence.mMaxLon = Math.max(fence.mMaxLon, lon);
+        }
+
+        /** Unwrapping the closing edge as well shows whether the ring winds around the globe:
+         *  then it ends 360 degrees away from where it started
+         */
+        double closingLon = longitudes[0] + 360 * Math.round((fence.mLons[count - 1] - longitudes[0]) / 360);
+        if (Math.abs(closingLon - fence.mLons[0]) >= 180) {
+            double latitudeSum = 0;
+            for (double latitude : latitudes) {
+                latitudeSum += latitude;
+            }
+            fence.mPoleLat = latitudeSum >= 0 ? 90 : -90;
+            fence.mMinLat = Math.min(fence.mMinLat, fence.mPoleLat);
+            fence.mMaxLat = Math.max(fence.mMaxLat, fence.mPoleLat);
+            fence.mMinLon = -180;
+            fence.mMaxLon = 180;
+        } else if (fence.mMaxLon - fence.mMinLon > 360) {
+            fence.mMaxLon = fence.mMinLon + 360;
+        }
+        return fence;
+    }
+
+    /** Fences are also read back from storage, so the ranges are checked here and not only
+     *  where the user types them. Besides being meaningless, a huge longitude would make the
+     *  bounding box, and the cells {@link GeofenceEngine} indexes it in, unbounded.
+     */
+    private static void checkCoordinates(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude <= 90)) {
+            throw new IllegalArgumentException("Latitude out of range: " + latitude);
+        }
+        if (!(longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("Longitude out of range: " + longitude);
+        }
+    }
+
+    /** Whether an earthquake of this magnitude at this place should raise an alert
+     * @param latitude Latitude of the epicenter in degrees
+     * @param longitude Longitude of the epicenter in degrees
+     * @param magnitude Magnitude of the earthquake; NaN never matches
+     */
+    public boolean matches(double latitude, double longitude, double magnitude) {
+        if (!(magnitude >= mMinMagnitude)) {
+            return false;
+        }
+        if (latitude < mMinLat || latitude > mMaxLat) {
+            return false;
+        }
+        // Bring the longitude into the range of the bounding box
+        double lon = longitude - mMinLon;
+        lon = mMinLon + (lon - 360 * Math.floor(lon / 360));
+        if (lon > mMaxLon) {
+            return false;
+        }
+        if (mType == TYPE_CIRCLE) {
+            return circleContains(latitude, longitude);
+        }
+        if (mPoleLat != 0) {
+            return polarPolygonContains(latitude, longitude);
+        }
+        return polygonContains(latitude, lon);
+    }
+
+    /** Compare squared chord lengths instead of great circle distances, which saves the
+     *  inverse trigonometry of the haversine formula
+     */
+    private boolean circleContains(double latitude, double longitude) {
+        double sinHalfLat = Math.sin(Math.toRadians(latitude - mCenterLat) / 2);
+        double sinHalfLon = Math.sin(Math.toRadians(longitude - mCenterLon) / 2);
+        double h = sinHalfLat * sinHalfLat
+                + mCosCenterLat * Math.cos(Math.toRadians(latitude)) * sinHalfLon * sinHalfLon;
+        return 4 * h <= mRadiusChord2;
+    }
+
+    /** Ray casting: count the edges crossed by a ray going east from the point        */
+    private boolean polygonContains(double latitude, double longitude) {
+        boolean inside = false;
+        for (int i = 0, j = mLats.length - 1; i < mLats.length; j = i++) {
+            if ((mLats[i] > latitude) != (mLats[j] > latitude)) {
+                double crossLon = mLons[i] + (latitude - mLats[i]) * (mLons[j] - mLons[i]) / (mLats[j] - mLats[i]);
+                if (longitude < crossLon) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /** A ring around a pole has no east or west side to cast a ray to, so the ray follows the
+     *  meridian of the point north instead. An odd number of crossings means the ring lies
+     *  between the point and the north pole, that is the point is on the south side of it.
+     */
+    private boolean polarPolygonContains(double latitude, double longitude) {
+        boolean southOfRing = false;
+        for (int i = 0, j = mLats.length - 1; i < mLats.length; j = i++) {
+            // Take the short way between the vertices, which for the closing edge is needed
+            double lonJ = mLons[j];
+            double lonI = mLons[i] + 360 * Math.round((lonJ - mLons[i]) / 360);
+            double west = Math.min(lonI, lonJ);
+            double lon = west + (longitude - west - 360 * Math.floor((longitude - west) / 360));
+            // Half open, so a meridian through a vertex is only counted once
+            if (lon < Math.max(lonI, lonJ)) {
+                double crossLat = mLats[j] + (lon - lonJ) * (mLats[i] - mLats[j]) / (lonI - lonJ);
+                if (crossLat > latitude) {
+                    southOfRing = !southOfRing;
+                }
+            }
+        }
+        return mPoleLat > 0 ? !southOfRing : southOfRing;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public double getCenterLat() {
+        return mCenterLat;
+    }
+
+    public double getCenterLon() {
+        return mCenterLon;
+    }
+
+    public double getRadiusKm() {
+        return mRadiusKm;
+    }
+
+    public double[] getLatitudes() {
+        return mLats.clone();
+    }
+
+    /** Longitudes of the vertices, brought back into [-180, 180) from their unwrapped values    */
+    public double[] getLongitudes() {
+        double[] longitudes = new double[mLons.length];
+        for (int i = 0; i < mLons.length; ++i) {
+            longitudes[i] = mLons[i] - 360 * Math.floor((mLons[i] + 180) / 360);
+        }
+        return longitudes;
+    }
+
+    public double getMinLat() {
+        return mMinLat;
+    }
+
+    public double getMaxLat() {
+        return mMaxLat;
+    }
+
+    public double getMinLon() {
+        return mMinLon;
+    }
+
+    public double getMaxLon() {
+        return mMaxLon;
+    }
+}
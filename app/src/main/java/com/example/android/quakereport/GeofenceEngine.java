@@ -0,0 +1,157 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Finds the {@link Geofence}s each earthquake of a batch falls in.
+ *  Fences are indexed in a grid of one degree cells: every cell holds the fences whose
+ *  bounding box overlaps it. An earthquake is then only checked against the fences of its own
+ *  cell, which for sites spread over the world is a handful out of thousands.
+ *  The index is built once and never changed, so one engine can be shared between threads;
+ *  {@link GeofenceStore} builds a new one when the fences change.
+ */
+public class GeofenceEngine {
+
+    private static final int LAT_CELLS = 180;
+    private static final int LON_CELLS = 360;
+
+    private final Geofence[] mFences;
+    private final double mMinMagnitude;
+    /** Fence indices per cell, at latCell * LON_CELLS + lonCell; null for empty cells      */
+    private final int[][] mCells = new int[LAT_CELLS * LON_CELLS][];
+
+    /** Constructor for class GeofenceEngine, builds the index
+     * @param fences Fences to check earthquakes against
+     */
+    public GeofenceEngine(List<Geofence> fences) {
+        mFences = fences.toArray(new Geofence[0]);
+        double minMagnitude = Double.POSITIVE_INFINITY;
+        for (Geofence fence : mFences) {
+            minMagnitude = Math.min(minMagnitude, fence.getMinMagnitude());
+        }
+        mMinMagnitude = minMagnitude;
+
+        /** Two passes over the fences: count the fences of each cell, then fill arrays of
+         *  exactly that size
+         */
+        int[] counts = new int[mCells.length];
+        for (Geofence fence : mFences) {
+            forEachCell(fence, counts, null, 0);
+        }
+        for (int cell = 0; cell < mCells.length; ++cell) {
+            if (counts[cell] > 0) {
+                mCells[cell] = new int[counts[cell]];
+                counts[cell] = 0;
+            }
+        }
+        for (int i = 0; i < mFences.length; ++i) {
+            forEachCell(mFences[i], counts, mCells, i);
+        }
+    }
+
+    /** Visit the cells overlapped by the bounding box of a fence. Without cells to fill the
+     *  counts are incremented, otherwise the fence index is stored at the next free slot.
+     */
+    private static void forEachCell(Geofence fence, int[] counts, int[][] cells, int fenceIndex) {
+        int latFrom = latCell(fence.getMinLat());
+        int latTo = latCell(fence.getMaxLat());
+        /** The span is worked out in doubles and the start brought into the grid, so the loop
+         *  never takes more than LON_CELLS steps, whatever the bounding box holds
+         */
+        double west = Math.floor(fence.getMinLon() + 180);
+        double east = Math.floor(fence.getMaxLon() + 180);
+        int lonFrom;
+        int lonTo;
+        if (east - west < LON_CELLS) {
+            lonFrom = (int) (west - LON_CELLS * Math.floor(west / LON_CELLS));
+            lonTo = lonFrom + (int) (east - west);
+        } else {
+            // Also taken for NaN
+            lonFrom = 0;
+            lonTo = LON_CELLS - 1;
+        }
+        for (int lat = latFrom; lat <= latTo; ++lat) {
+            for (int lon = lonFrom; lon <= lonTo; ++lon) {
+                int cell = lat * LON_CELLS + Math.floorMod(lon, LON_CELLS);
+                if (cells == null) {
+                    ++counts[cell];
+                } else {
+                    cells[cell][counts[cell]++] = fenceIndex;
+                }
+            }
+        }
+    }
+
+    /** Check a batch of earthquakes against every fence
+     * @param quakes Earthquakes from the latest load
+     * @return One alert per earthquake and fence it falls in, in the order of the earthquakes
+     */
+    public List<Alert> evaluate(List<Quake> quakes) {
+        List<Alert> alerts = new ArrayList<>();
+        for (Quake quake : quakes) {
+            double latitude = quake.getLatitude();
+            double longitude = quake.getLongitude();
+            double magnitude = quake.getMagnitude(null);
+            int[] candidates = candidates(latitude, longitude);
+            if (candidates == null) {
+                continue;
+            }
+            for (int index : candidates) {
+                if (mFences[index].matches(latitude, longitude, magnitude)) {
+                    alerts.add(new Alert(quake, mFences[index]));
+                }
+            }
+        }
+        return alerts;
+    }
+
+    public int size() {
+        return mFences.length;
+    }
+
+    public boolean isEmpty() {
+        return mFences.length == 0;
+    }
+
+    /** Lowest magnitude any fence alerts for, the filter to query earthquakes with. Positive
+     *  infinity without fences.
+     */
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    private int[] candidates(double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return null;
+        }
+        return mCells[latCell(latitude) * LON_CELLS + lonCell(longitude)];
+    }
+
+    private static int latCell(double latitude) {
+        return Math.max(0, Math.min(LAT_CELLS - 1, (int) Math.floor(latitude + 90)));
+    }
+
+    private static int lonCell(double longitude) {
+        return Math.floorMod((int) Math.floor(longitude + 180), LON_CELLS);
+    }
+
+    /** An earthquake inside a fence         */
+    public static class Alert {
+
+        private final Quake mQuake;
+        private final Geofence mGeofence;
+
+        Alert(Quake quake, Geofence geofence) {
+            mQuake = quake;
+            mGeofence = geofence;
+        }
+
+        public Quake getQuake() {
+            return mQuake;
+        }
+
+        public Geofence getGeofence() {
+            return mGeofence;
+        }
+    }
+}
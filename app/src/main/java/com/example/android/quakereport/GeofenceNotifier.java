@@ -0,0 +1,197 @@
+package com.example.android.quakereport;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Turns {@link GeofenceEngine.Alert}s into notifications, one per earthquake listing every
+ *  fence it fell in.
+ *  Every load returns the recent earthquakes again, so an earthquake is only notified once,
+ *  and not at all when it is older than MAX_EVENT_AGE_MS. The earthquakes already notified
+ *  are kept in SharedPreferences, so a restart of the app does not bring their alerts back.
+ *  Only the last MAX_EVENT_AGE_MS need to be remembered, as older ones are skipped anyway.
+ *  The time of the last check is kept as well, so the next alert query only asks for what
+ *  came in since then.
+ */
+public final class GeofenceNotifier {
+
+    private static final String CHANNEL_ID = "geofence_alerts";
+    private static final long MAX_EVENT_AGE_MS = 24 * 60 * 60 * 1000;
+    private static final int MAX_REMEMBERED_EVENTS = 500;
+    private static final String PREFS_NAME = "geofence_alerts";
+    /** String set of "timeInMillis url", one entry per earthquake already notified      */
+    private static final String PREF_NOTIFIED = "notified";
+    /** Time in milliseconds the earthquakes were last checked against the fences      */
+    private static final String PREF_LAST_CHECK = "last_check";
+    /** Earthquakes show up in the catalogs some minutes after they happened, so a check
+     *  looks this far back before the previous one
+     */
+    private static final long LATE_REPORT_MS = 60 * 60 * 1000;
+
+    /** Urls of the earthquakes already notified with their time, in the order notified.
+     *  Read from the preferences on first use.
+     */
+    private static Map<String, Long> sNotified;
+
+    private GeofenceNotifier() {
+    }
+
+    /** Post a notification for every earthquake of the alerts not notified before
+     * @param context Context used to reach the NotificationManager
+     * @param alerts Alerts of the latest batch, as returned by {@link GeofenceEngine#evaluate}
+     */
+    public static synchronized void notify(Context context, List<GeofenceEngine.Alert> alerts) {
+        if (alerts.isEmpty()) {
+            return;
+        }
+
+        /** Group the fence names per earthquake, keeping the order of the batch      */
+        Map<Quake, List<String>> fencesPerQuake = new LinkedHashMap<>();
+        long oldest = System.currentTimeMillis() - MAX_EVENT_AGE_MS;
+        if (sNotified == null) {
+            sNotified = readNotified(context, oldest);
+        }
+        for (GeofenceEngine.Alert alert : alerts) {
+            Quake quake = alert.getQuake();
+            if (quake.getTimeInMillis() < oldest || sNotified.containsKey(quake.getUrl(context))) {
+                continue;
+            }
+            List<String> names = fencesPerQuake.get(quake);
+            if (names == null) {
+                names = new ArrayList<>();
+                fencesPerQuake.put(quake, names);
+            }
+            names.add(alert.getGeofence().getName());
+        }
+        if (fencesPerQuake.isEmpty()) {
+            return;
+        }
+
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                context.getString(R.string.geofence_channel_name), NotificationManager.IMPORTANCE_HIGH);
+        channel.setDescription(context.getString(R.string.geofence_channel_description));
+        notificationManager.createNotificationChannel(channel);
+
+        for (Map.Entry<Quake, List<String>> entry : fencesPerQuake.entrySet()) {
+            Quake quake = entry.getKey();
+            String url = quake.getUrl(context);
+            sNotified.put(url, quake.getTimeInMillis());
+
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.mipmap.ic_launcher)
+                    .setContentTitle(context.getString(R.string.geofence_alert_title,
+                            quake.getMagnitude(context), quake.getLocation(context)))
+                    .setContentText(context.getString(R.string.geofence_alert_text,
+                            TextUtils.join(", ", entry.getValue())))
+                    .setContentIntent(createContentIntent(context, quake))
+                    .setAutoCancel(true);
+            notificationManager.notify(url.hashCode(), builder.build());
+        }
+        writeNotified(context, oldest);
+    }
+
+    /** Start of the time window the next alert query has to cover: the last check, less the
+     *  time earthquakes take to be reported, but no further back than MAX_EVENT_AGE_MS
+     * @param context Context used to read the preferences
+     * @param now Current time in milliseconds
+     * @return Start of the window in milliseconds
+     */
+    public static long getCheckStart(Context context, long now) {
+        long lastCheck = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getLong(PREF_LAST_CHECK, 0);
+        return Math.max(now - MAX_EVENT_AGE_MS, lastCheck - LATE_REPORT_MS);
+    }
+
+    /** Remember that the earthquakes up to the given time have been checked
+     * @param context Context used to write the preferences
+     * @param now Time the alert query was sent at
+     */
+    public static void setChecked(Context context, long now) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(PREF_LAST_CHECK, now)
+                .apply();
+    }
+
+    /** Read the earthquakes notified within the last MAX_EVENT_AGE_MS, oldest first       */
+    private static Map<String, Long> readNotified(Context context, long oldest) {
+        Set<String> entries = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getStringSet(PREF_NOTIFIED, Collections.<String>emptySet());
+        List<String[]> parsed = new ArrayList<>();
+        for (String entry : entries) {
+            String[] parts = entry.split(" ", 2);
+            try {
+                if (parts.length == 2 && Long.parseLong(parts[0]) >= oldest) {
+                    parsed.add(parts);
+                }
+            } catch (NumberFormatException e) {
+                // Not written by writeNotified, forget it
+            }
+        }
+        Collections.sort(parsed, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                return Long.compare(Long.parseLong(a[0]), Long.parseLong(b[0]));
+            }
+        });
+
+        Map<String, Long> notified = new LinkedHashMap<>();
+        for (String[] parts : parsed) {
+            notified.put(parts[1], Long.parseLong(parts[0]));
+        }
+        return notified;
+    }
+
+    /** Forget the earthquakes too old to be notified again, keep at most MAX_REMEMBERED_EVENTS
+     *  of the others and store them
+     */
+    private static void writeNotified(Context context, long oldest) {
+        Iterator<Map.Entry<String, Long>> iterator = sNotified.entrySet().iterator();
+        int excess = sNotified.size() - MAX_REMEMBERED_EVENTS;
+        Set<String> entries = new HashSet<>();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (excess-- > 0 || entry.getValue() < oldest) {
+                iterator.remove();
+            } else {
+                entries.add(entry.getValue() + " " + entry.getKey());
+            }
+        }
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putStringSet(PREF_NOTIFIED, entries)
+                .apply();
+    }
+
+    /** Open the in-app detail when the earthquake has one, otherwise its event page, the same
+     *  way a tap on the list does
+     */
+    private static PendingIntent createContentIntent(Context context, Quake quake) {
+        Intent intent;
+        if (TextUtils.isEmpty(quake.getId())) {
+            intent = new Intent(Intent.ACTION_VIEW, Uri.parse(quake.getUrl(context)));
+        } else {
+            intent = new Intent(context, QuakeDetailActivity.class);
+            intent.putExtra(QuakeDetailActivity.EXTRA_EVENT_ID, quake.getId());
+        }
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        return PendingIntent.getActivity(context, quake.getUrl(context).hashCode(), intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Keeps the user's {@link Geofence}s in a JSON file in the app's private storage, and the
+ *  {@link GeofenceEngine} built from them.
+ *  The file holds {"fences": [...]}, where a circle is
+ *  {"id", "name", "minmag", "type": "circle", "lat", "lon", "radius_km"} and a polygon is
+ *  {"id", "name", "minmag", "type": "polygon", "points": [[lat, lon], ...]}.
+ *  Users define their fences as text in the settings, one per line, which is imported with
+ *  {@link #importDefinitions}:
+ *  circle|name|minmag|lat|lon|radius_km or polygon|name|minmag|lat lon;lat lon;lat lon...
+ */
+public final class GeofenceStore {
+
+    private static final String LOG_TAG = GeofenceStore.class.getSimpleName();
+    private static final String FILE_NAME = "geofences.json";
+    private static final String TYPE_CIRCLE = "circle";
+    private static final String TYPE_POLYGON = "polygon";
+
+    private static GeofenceEngine sEngine;
+
+    private GeofenceStore() {
+    }
+
+    /** Engine for the stored fences. The file is read and indexed once, on the first call,
+     *  which is made from the loader's worker thread.
+     * @param context Context used to reach the app's files
+     */
+    public static synchronized GeofenceEngine getEngine(Context context) {
+        if (sEngine == null) {
+            sEngine = new GeofenceEngine(load(context));
+        }
+        return sEngine;
+    }
+
+    /** Replace the stored fences, and the engine along with them
+     * @param context Context used to reach the app's files
+     * @param fences New list of fences
+     */
+    public static synchronized void save(Context context, List<Geofence> fences) {
+        try {
+            JSONArray array = new JSONArray();
+            for (Geofence fence : fences) {
+                array.put(toJson(fence));
+            }
+            JSONObject root = new JSONObject();
+            root.put("fences", array);
+
+            OutputStream outputStream = new FileOutputStream(new File(context.getFilesDir(), FILE_NAME));
+            try {
+                outputStream.write(root.toString().getBytes(Charset.forName("UTF-8")));
+            } finally {
+                outputStream.close();
+            }
+        } catch (JSONException | IOException e) {
+            Log.e(LOG_TAG, "Problem saving the geofences", e);
+        }
+        sEngine = new GeofenceEngine(fences);
+    }
+
+    /** Replace the stored fences with the ones defined in the settings text. Lines which cannot
+     *  be read are skipped, so the others still work.
+     * @param context Context used to reach the app's files
+     * @param definitions Text of the settings, one fence per line
+     * @return Number of fences stored
+     */
+    public static int importDefinitions(Context context, String definitions) {
+        List<Geofence> fences = parseDefinitions(definitions);
+        save(context, fences);
+        return fences.size();
+    }
+
+    /** Parse the settings text without storing it. Empty lines and lines starting with '#' are
+     *  ignored.
+     * @param definitions Text of the settings, one fence per line
+     * @return List of the fences which could be read
+     */
+    public static List<Geofence> parseDefinitions(String definitions) {
+        List<Geofence> fences = new ArrayList<>();
+        if (definitions == null) {
+            return fences;
+        }
+        String[] lines = definitions.split("\n");
+        for (int i = 0; i < lines.length; ++i) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                fences.add(parseDefinition("line" + (i + 1), line));
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG_TAG, "Skipping unreadable geofence on line " + (i + 1) + ": " + line, e);
+            }
+        }
+        return fences;
+    }
+
+    /** Parse one line of the settings text
+     * @throws IllegalArgumentException if the line is not a valid circle or polygon; this
+     *         includes the NumberFormatException of a bad number
+     */
+    private static Geofence parseDefinition(String id, String line) {
+        String[] fields = line.split("\\|");
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = fields[i].trim();
+        }
+        String type = fields[0].toLowerCase();
+        if (TYPE_CIRCLE.equals(type) && fields.length == 6) {
+            double latitude = parseLatitude(fields[3]);
+            double longitude = parseLongitude(fields[4]);
+            double radiusKm = Double.parseDouble(fields[5]);
+            if (!(radiusKm > 0)) {
+                throw new IllegalArgumentException("Radius must be positive: " + fields[5]);
+            }
+            return Geofence.circle(id, fields[1], Double.parseDouble(fields[2]), latitude, longitude, radiusKm);
+        }
+        if (TYPE_POLYGON.equals(type) && fields.length == 4) {
+            String[] points = fields[3].split(";");
+            double[] latitudes = new double[points.length];
+            double[] longitudes = new double[points.length];
+            for (int i = 0; i < points.length; ++i) {
+                String[] coordinates = points[i].trim().split("[\\s,]+");
+                if (coordinates.length != 2) {
+                    throw new IllegalArgumentException("Expected \"lat lon\": " + points[i]);
+                }
+                latitudes[i] = parseLatitude(coordinates[0]);
+                longitudes[i] = parseLongitude(coordinates[1]);
+            }
+            return Geofence.polygon(id, fields[1], Double.parseDouble(fields[2]), latitudes, longitudes);
+        }
+        throw new IllegalArgumentException("Expected a circle with 6 fields or a polygon with 4");
+    }
+
+    private static double parseLatitude(String field) {
+        double latitude = Double.parseDouble(field);
+        if (!(latitude >= -90 && latitude <= 90)) {
+            throw new IllegalArgumentException("Latitude out of range: " + field);
+        }
+        return latitude;
+    }
+
+    private static double parseLongitude(String field) {
+        double longitude = Double.parseDouble(field);
+        if (!(longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("Longitude out of range: " + field);
+        }
+        return longitude;
+    }
+
+    /** Read the stored fences. A missing file means no fences; a fence which cannot be read is
+     *  skipped so the others still work.
+     * @param context Context used to reach the app's files
+     * @return List of fences
+     */
+    public static List<Geofence> load(Context context) {
+        List<Geofence> fences = new ArrayList<>();
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.exists()) {
+            return fences;
+        }
+
+        JSONArray array;
+        try {
+            array = new JSONObject(readFile(file)).optJSONArray("fences");
+        } catch (JSONException | IOException e) {
+            Log.e(LOG_TAG, "Problem reading the geofences", e);
+            return fences;
+        }
+        if (array == null) {
+            return fences;
+        }
+
+        for (int i = 0; i < array.length(); ++i) {
+            try {
+                fences.add(fromJson(array.getJSONObject(i)));
+            } catch (JSONException | IllegalArgumentException e) {
+                Log.e(LOG_TAG, "Skipping unreadable geofence at " + i, e);
+            }
+        }
+        return fences;
+    }
+
+    private static Geofence fromJson(JSONObject object) throws JSONException {
+        String id = object.getString("id");
+        String name = object.optString("name", id);
+        double minMagnitude = object.optDouble("minmag", 0);
+
+        if (TYPE_POLYGON.equals(object.getString("type"))) {
+            JSONArray points = object.getJSONArray("points");
+            double[] latitudes = new double[points.length()];
+            double[] longitudes = new double[points.length()];
+            for (int i = 0; i < points.length(); ++i) {
+                JSONArray point = points.getJSONArray(i);
+                latitudes[i] = point.getDouble(0);
+                longitudes[i] = point.getDouble(1);
+            }
+            return Geofence.polygon(id, name, minMagnitude, latitudes, longitudes);
+        }
+        return Geofence.circle(id, name, minMagnitude,
+                object.getDouble("lat"), object.getDouble("lon"), object.getDouble("radius_km"));
+    }
+
+    private static JSONObject toJson(Geofence fence) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("id", fence.getId());
+        object.put("name", fence.getName());
+        object.put("minmag", fence.getMinMagnitude());
+        if (fence.getType() == Geofence.TYPE_POLYGON) {
+            object.put("type", TYPE_POLYGON);
+            double[] latitudes = fence.getLatitudes();
+            double[] longitudes = fence.getLongitudes();
+            JSONArray points = new JSONArray();
+            for (int i = 0; i < latitudes.length; ++i) {
+                JSONArray point = new JSONArray();
+                point.put(latitudes[i]);
+                point.put(longitudes[i]);
+                points.put(point);
+            }
+            object.put("points", points);
+        } else {
+            object.put("type", TYPE_CIRCLE);
+            object.put("lat", fence.getCenterLat());
+            object.put("lon", fence.getCenterLon());
+            object.put("radius_km", fence.getRadiusKm());
+        }
+        return object;
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < buffer.length) {
+                int count = inputStream.read(buffer, offset, buffer.length - offset);
+                if (count == -1) {
+                    break;
+                }
+                offset += count;
+            }
+            return new String(buffer, 0, offset, Charset.forName("UTF-8"));
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -9,6 +9,10 @@ public class Quake {
     private String mDate;
     private String mTime;
     private String mUrl;
+    private String mId;
+    private long mTimeInMillis;
+    private double mLatitude;
+    private double mLongitude;
 
     /** Constructor for class Quake
      *
@@ -24,6 +28,24 @@ public class Quake {
         mUrl = url;
     }
 
+    /** Constructor for class Quake which also keeps the event id, origin time and epicenter,
+     *  used to request the per-event detail and to find the same event reported by
+     *  different providers
+     *
+     * @param id USGS event id of earthquake, null for events which have no USGS detail
+     * @param timeInMillis Time of occurence of earthquake in milliseconds since epoch
+     * @param latitude Latitude of the epicenter in degrees
+     * @param longitude Longitude of the epicenter in degrees
+     */
+    public Quake(String id, double magnitude, String location, String date, String time, String url,
+                 long timeInMillis, double latitude, double longitude) {
+        this(magnitude, location, date, time, url);
+        mId = id;
+        mTimeInMillis = timeInMillis;
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
     public double getMagnitude(Context context) {
         return mMagnitude;
     }
@@ -43,4 +65,20 @@ public class Quake {
     public String getUrl(Context context) {
         return mUrl;
     }
+
+    public String getId() {
+        return mId;
+    }
+
+    public long getTimeInMillis() {
+        return mTimeInMillis;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
 }
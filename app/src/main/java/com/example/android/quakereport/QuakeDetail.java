@@ -0,0 +1,115 @@
+package com.example.android.quakereport;
+
+/** Details of a single earthquake, parsed from the USGS per-event detail GeoJSON
+ *  (query with eventid=). Holds more than {@link Quake} which only keeps what the list shows.
+ */
+public class QuakeDetail {
+
+    private String mId;
+    private String mTitle;
+    private double mMagnitude;
+    private String mMagnitudeType;
+    private String mLocation;
+    private long mTimeInMillis;
+    private String mUrl;
+    private double mLatitude;
+    private double mLongitude;
+    private double mDepth;
+    private int mFelt;
+    private String mAlert;
+    private String mStatus;
+    private boolean mTsunami;
+
+    /** Constructor for class QuakeDetail
+     *
+     * @param id USGS event id
+     * @param title Title of the event as given by USGS
+     * @param magnitude Magnitude of earthquake
+     * @param magnitudeType Method used to compute the magnitude (mb, ml, mww, ...)
+     * @param location Location of earthquake
+     * @param timeInMillis Time of occurence of earthquake in milliseconds since epoch
+     * @param url Event page on the USGS website
+     * @param latitude Latitude of the epicenter in degrees
+     * @param longitude Longitude of the epicenter in degrees
+     * @param depth Depth of the hypocenter in km
+     * @param felt Number of "Did You Feel It?" reports
+     * @param alert PAGER alert level, empty if not available
+     * @param status Review status of the event (automatic / reviewed)
+     * @param tsunami Whether a tsunami flag is set for the event
+     */
+    public QuakeDetail(String id, String title, double magnitude, String magnitudeType,
+                       String location, long timeInMillis, String url, double latitude,
+                       double longitude, double depth, int felt, String alert, String status,
+                       boolean tsunami) {
+        mId = id;
+        mTitle = title;
+        mMagnitude = magnitude;
+        mMagnitudeType = magnitudeType;
+        mLocation = location;
+        mTimeInMillis = timeInMillis;
+        mUrl = url;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDepth = depth;
+        mFelt = felt;
+        mAlert = alert;
+        mStatus = status;
+        mTsunami = tsunami;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public double getMagnitude() {
+        return mMagnitude;
+    }
+
+    public String getMagnitudeType() {
+        return mMagnitudeType;
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public long getTimeInMillis() {
+        return mTimeInMillis;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getDepth() {
+        return mDepth;
+    }
+
+    public int getFelt() {
+        return mFelt;
+    }
+
+    public String getAlert() {
+        return mAlert;
+    }
+
+    public String getStatus() {
+        return mStatus;
+    }
+
+    public boolean isTsunami() {
+        return mTsunami;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.android.quakereport;
+
+import android.app.LoaderManager;
+import android.content.Intent;
+import android.content.Loader;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/** Shows the detail of a single earthquake inside the app.
+ *  The detail is normally already in {@link QuakeDetailCache} thanks to
+ *  {@link QuakeDetailPrefetcher}, in which case it is shown right away. Otherwise it is
+ *  requested with a {@link QuakeDetailLoader}.
+ */
+public class QuakeDetailActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<QuakeDetail> {
+
+    public static final String EXTRA_EVENT_ID = "com.example.android.quakereport.EXTRA_EVENT_ID";
+
+    private static final String LOG_TAG = QuakeDetailActivity.class.getName();
+    private static final int DETAIL_LOADER_ID = 2;
+    private String mEventId;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.quake_detail_activity);
+
+        mEventId = getIntent().getStringExtra(EXTRA_EVENT_ID);
+
+        QuakeDetail cached = QuakeDetailCache.getInstance().get(mEventId);
+        if (cached != null) {
+            Log.v(LOG_TAG, "detail served from cache for " + mEventId);
+            updateUi(cached);
+        } else {
+            getLoaderManager().initLoader(DETAIL_LOADER_ID, null, this);
+        }
+    }
+
+    /** Method to fill in the detail screen, or show the empty view if there is nothing to show
+     * @param detail Detail of the earthquake, may be null
+     */
+    private void updateUi(final QuakeDetail detail) {
+        ProgressBar spinner = findViewById(R.id.detail_progress_circular);
+        spinner.setVisibility(View.GONE);
+
+        if (detail == null) {
+            TextView emptyView = findViewById(R.id.detail_empty_view);
+            emptyView.setText(R.string.detail_unavailable);
+            return;
+        }
+
+        findViewById(R.id.detail_content).setVisibility(View.VISIBLE);
+
+        TextView titleView = findViewById(R.id.detail_title);
+        titleView.setText(TextUtils.isEmpty(detail.getTitle()) ? detail.getLocation() : detail.getTitle());
+
+        Date dateObject = new Date(detail.getTimeInMillis());
+        SimpleDateFormat dateFormatter = new SimpleDateFormat("MMM dd, yyyy h:mm a");
+        TextView dateView = findViewById(R.id.detail_date);
+        dateView.setText(dateFormatter.format(dateObject));
+
+        TextView magView = findViewById(R.id.detail_magnitude);
+        magView.setText(getString(R.string.detail_magnitude, detail.getMagnitude(), detail.getMagnitudeType()));
+
+        TextView coordinatesView = findViewById(R.id.detail_coordinates);
+        coordinatesView.setText(getString(R.string.detail_coordinates, detail.getLatitude(), detail.getLongitude()));
+
+        TextView depthView = findViewById(R.id.detail_depth);
+        depthView.setText(getString(R.string.detail_depth, detail.getDepth()));
+
+        TextView feltView = findViewById(R.id.detail_felt);
+        feltView.setText(getString(R.string.detail_felt, detail.getFelt()));
+
+        String alert = TextUtils.isEmpty(detail.getAlert()) ? getString(R.string.detail_alert_none) : detail.getAlert();
+        TextView alertView = findViewById(R.id.detail_alert);
+        alertView.setText(getString(R.string.detail_alert, alert));
+
+        TextView tsunamiView = findViewById(R.id.detail_tsunami);
+        tsunamiView.setText(getString(R.string.detail_tsunami,
+                getString(detail.isTsunami() ? R.string.detail_yes : R.string.detail_no)));
+
+        TextView statusView = findViewById(R.id.detail_status);
+        statusView.setText(getString(R.string.detail_status, detail.getStatus()));
+
+        /** The USGS event page is still reachable, but only when the user asks for it      */
+        Button websiteButton = findViewById(R.id.detail_open_website);
+        websiteButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent quakeData = new Intent(Intent.ACTION_VIEW);
+                quakeData.setData(Uri.parse(detail.getUrl()));
+                startActivity(quakeData);
+            }
+        });
+    }
+
+    // LOADER IMPLEMENTED METHODS
+
+    @Override
+    public Loader<QuakeDetail> onCreateLoader(int id, Bundle args) {
+        Log.v(LOG_TAG, "onCreateLoader called here ");
+        return new QuakeDetailLoader(this, mEventId);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<QuakeDetail> loader, QuakeDetail detail) {
+        Log.v(LOG_TAG, "onLoadFinished called here ");
+        updateUi(detail);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<QuakeDetail> loader) {
+        Log.v(LOG_TAG, "onLoaderReset called here ");
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.android.quakereport;
+
+import android.util.LruCache;
+
+/** Process-wide, size-bounded cache of {@link QuakeDetail} objects keyed by USGS event id.
+ *  Filled by {@link QuakeDetailPrefetcher} for rows near the visible part of the list, so that
+ *  {@link QuakeDetailActivity} can usually show an event without going to the network.
+ *  LruCache is thread-safe, so it can be written from worker threads and read on the UI thread.
+ */
+public final class QuakeDetailCache {
+
+    /** A detail object is a few hundred bytes, so the bound is on the number of events      */
+    private static final int MAX_ENTRIES = 100;
+
+    private static QuakeDetailCache sInstance;
+
+    private final LruCache<String, QuakeDetail> mCache = new LruCache<>(MAX_ENTRIES);
+
+    private QuakeDetailCache() {
+    }
+
+    public static synchronized QuakeDetailCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new QuakeDetailCache();
+        }
+        return sInstance;
+    }
+
+    public QuakeDetail get(String eventId) {
+        if (eventId == null) {
+            return null;
+        }
+        return mCache.get(eventId);
+    }
+
+    public void put(QuakeDetail detail) {
+        if (detail == null || detail.getId() == null) {
+            return;
+        }
+        mCache.put(detail.getId(), detail);
+    }
+
+    public boolean contains(String eventId) {
+        return get(eventId) != null;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.util.Log;
+
+/** Loader used by {@link QuakeDetailActivity} when the requested event was not prefetched.
+ *  Uses android.content.AsyncTaskLoader for the same reason as {@link EarthquakeLoader}.
+ */
+public class QuakeDetailLoader extends AsyncTaskLoader<QuakeDetail> {
+
+    private static final String TAG = QuakeDetailLoader.class.getSimpleName();
+    private String mEventId = null;
+
+    /** Constructor for QuakeDetailLoader class
+     * @param context Context from where Loader is called
+     * @param eventId USGS event id to request the detail of
+     */
+    public QuakeDetailLoader(Context context, String eventId) {
+        super(context);
+        mEventId = eventId;
+    }
+
+    /** Fetch the detail and store it in {@link QuakeDetailCache}, so it is not requested again
+     * @return Detail of the earthquake, or null if it could not be fetched
+     */
+    @Override
+    public QuakeDetail loadInBackground() {
+        Log.v(TAG, "loadInBackground called here ");
+        QuakeDetailCache cache = QuakeDetailCache.getInstance();
+
+        QuakeDetail detail = cache.get(mEventId);
+        if (detail == null) {
+            detail = QueryUtils.fetchQuakeDetail(mEventId);
+            cache.put(detail);
+        }
+        return detail;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        Log.v(TAG, "onStartLoading called here ");
+        forceLoad();
+    }
+}
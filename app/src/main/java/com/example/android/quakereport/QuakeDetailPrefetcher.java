@@ -0,0 +1,211 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Prefetches {@link QuakeDetail} for the rows around the visible part of the earthquake list
+ *  and stores them in {@link QuakeDetailCache}.
+ *  At most MAX_CONCURRENT requests run at a time. Pending requests wait in a priority queue
+ *  ordered by their distance from the visible rows, so the rows the user is looking at are
+ *  fetched first. When the viewport moves, requests which are no longer near it are dropped
+ *  from the queue, and while the list is flinging nothing new is queued at all.
+ *  How far around the viewport to look, and whether a request may go out at all, is left to
+ *  {@link RequestPlanner}, which keeps prefetch within its budget on metered links.
+ *  The pool hands the first tasks straight to new threads without going through the queue,
+ *  so tasks are also queued closest first: the visible rows, then one row further out below
+ *  and above at a time.
+ *  All public methods are meant to be called from the UI thread.
+ */
+public class QuakeDetailPrefetcher {
+
+    private static final String TAG = QuakeDetailPrefetcher.class.getSimpleName();
+
+    /** Number of detail requests allowed in flight at once       */
+    private static final int MAX_CONCURRENT = 2;
+
+    /** Where the details come from, the network unless a test says otherwise       */
+    interface DetailSource {
+        QuakeDetail fetch(String eventId);
+    }
+
+    private static final DetailSource NETWORK = new DetailSource() {
+        @Override
+        public QuakeDetail fetch(String eventId) {
+            return QueryUtils.fetchQuakeDetail(eventId);
+        }
+    };
+
+    private final Context mContext;
+    private final RequestPlanner mPlanner;
+    private final DetailSource mSource;
+    private final ThreadPoolExecutor mExecutor;
+    private final QuakeDetailCache mCache = QuakeDetailCache.getInstance();
+    private final Map<String, PrefetchTask> mPending = new ConcurrentHashMap<>();
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private List<Quake> mQuakes = new ArrayList<>();
+    private boolean mPaused = false;
+    private int mLastFirstVisible = -1;
+    private int mLastVisibleCount = -1;
+
+    /** Constructor for class QuakeDetailPrefetcher
+     * @param context Context used to read the type of the active network
+     */
+    public QuakeDetailPrefetcher(Context context) {
+        this(context.getApplicationContext(), RequestPlanner.getInstance(), NETWORK);
+    }
+
+    /** Constructor for tests, which run on the JVM without a network to read
+     * @param context Context used to read the type of the active network, or null to leave
+     *                the network as set on the planner
+     * @param planner Planner deciding how far to look and whether a request may go out
+     * @param source Source of the details
+     */
+    QuakeDetailPrefetcher(Context context, RequestPlanner planner, DetailSource source) {
+        mContext = context;
+        mPlanner = planner;
+        mSource = source;
+        mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT,
+                30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Set the list backing the ListView. Anything queued for the previous list is dropped.
+     * @param quakes List of earthquakes currently shown
+     */
+    public void setQuakes(List<Quake> quakes) {
+        cancelPending();
+        mQuakes = quakes != null ? quakes : new ArrayList<Quake>();
+        updateNetwork();
+        mLastFirstVisible = -1;
+        mLastVisibleCount = -1;
+    }
+
+    /** Called from AbsListView.OnScrollListener.onScroll. Re-plans the queue around the new
+     *  viewport, skipping the work if the visible rows have not changed.
+     * @param firstVisible Position of the first visible row
+     * @param visibleCount Number of visible rows
+     */
+    public void onViewportChanged(int firstVisible, int visibleCount) {
+        if (mPaused || visibleCount <= 0) {
+            return;
+        }
+        if (firstVisible == mLastFirstVisible && visibleCount == mLastVisibleCount) {
+            return;
+        }
+        mLastFirstVisible = firstVisible;
+        mLastVisibleCount = visibleCount;
+
+        /** PriorityBlockingQueue does not re-sort on change, so the queue is rebuilt with
+         *  the priorities for the new viewport. Its size is bounded by the prefetch window.
+         */
+        cancelPending();
+
+        int margin = mPlanner.prefetchMargin();
+        int lastVisible = Math.min(mQuakes.size() - 1, firstVisible + visibleCount - 1);
+        for (int position = firstVisible; position <= lastVisible; ++position) {
+            enqueue(position, 0);
+        }
+        // Then outward, below before above since lists are mostly scrolled down
+        for (int distance = 1; distance <= margin; ++distance) {
+            enqueue(lastVisible + distance, distance);
+            enqueue(firstVisible - distance, distance);
+        }
+    }
+
+    /** Called when the list starts flinging. The rows passing by will not be looked at, so
+     *  everything not yet started is cancelled and nothing is queued until the list settles.
+     */
+    public void pause() {
+        mPaused = true;
+        cancelPending();
+    }
+
+    /** Called when the list is idle again, followed by onViewportChanged for the final rows    */
+    public void resume() {
+        mPaused = false;
+        updateNetwork();
+        mLastFirstVisible = -1;
+        mLastVisibleCount = -1;
+    }
+
+    /** Stop all work, to be called from the owning activity's onDestroy       */
+    public void shutdown() {
+        mPending.clear();
+        mExecutor.shutdownNow();
+    }
+
+    private void updateNetwork() {
+        if (mContext != null) {
+            mPlanner.updateNetwork(mContext);
+        }
+    }
+
+    private void enqueue(int position, int distance) {
+        if (position < 0 || position >= mQuakes.size()) {
+            return;
+        }
+        String eventId = mQuakes.get(position).getId();
+        if (TextUtils.isEmpty(eventId) || mCache.contains(eventId) || mPending.containsKey(eventId)) {
+            return;
+        }
+        PrefetchTask task = new PrefetchTask(eventId, distance, mSequence.getAndIncrement());
+        mPending.put(eventId, task);
+        mExecutor.execute(task);
+    }
+
+    /** Remove every queued task which has not started yet. Running requests are left to finish
+     *  since their result still ends up in the cache.
+     */
+    private void cancelPending() {
+        for (PrefetchTask task : mPending.values()) {
+            if (mExecutor.remove(task)) {
+                mPending.remove(task.mEventId, task);
+            }
+        }
+    }
+
+    private class PrefetchTask implements Runnable, Comparable<PrefetchTask> {
+
+        private final String mEventId;
+        private final int mDistance;
+        private final long mOrder;
+
+        PrefetchTask(String eventId, int distance, long order) {
+            mEventId = eventId;
+            mDistance = distance;
+            mOrder = order;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!mCache.contains(mEventId) && mPlanner.allowPrefetch()) {
+                    Log.v(TAG, "prefetching detail for " + mEventId);
+                    mCache.put(mSource.fetch(mEventId));
+                }
+            } finally {
+                mPending.remove(mEventId, this);
+            }
+        }
+
+        /** Rows closer to the viewport first, then in the order they were queued       */
+        @Override
+        public int compareTo(PrefetchTask other) {
+            if (mDistance != other.mDistance) {
+                return mDistance < other.mDistance ? -1 : 1;
+            }
+            return Long.compare(mOrder, other.mOrder);
+        }
+    }
+}
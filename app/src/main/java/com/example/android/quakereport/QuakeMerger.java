@@ -0,0 +1,176 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Merges the earthquake lists of several {@link FdsnProvider}s into one list, dropping
+ *  events which another provider already reported.
+ *  Providers locate the same earthquake a little differently, so two events are taken to be
+ *  the same one when they come from different providers and are within MATCH_TIME_MS,
+ *  MATCH_DISTANCE_KM and MATCH_MAGNITUDE of each other. Events of one provider are never
+ *  merged with each other, as close events in one catalog are real aftershocks.
+ *  Kept events are indexed by time bucket and latitude / longitude cell, so each event is only
+ *  compared with the few events in neighbouring buckets instead of all of them.
+ */
+public final class QuakeMerger {
+
+    private static final long MATCH_TIME_MS = 60 * 1000;
+    private static final double MATCH_DISTANCE_KM = 100;
+    private static final double MATCH_MAGNITUDE = 1.0;
+
+    /** Cells are one degree, which is at least MATCH_DISTANCE_KM in latitude      */
+    private static final double CELL_DEGREES = 1.0;
+    private static final int LAT_CELLS = 181;
+    private static final int LON_CELLS = 360;
+    private static final double KM_PER_DEGREE = 111.19;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private QuakeMerger() {
+    }
+
+    /** Merge the lists of the providers, in the order of preference of the providers.
+     *  Expected O(n) for the index work, so the caller's sort dominates with O(n log n).
+     * @param providerLists One list per provider, most preferred first; null lists are skipped
+     * @return Earthquakes with duplicates removed, keeping the event of the preferred provider
+     */
+    public static ArrayList<Quake> merge(List<List<Quake>> providerLists) {
+        ArrayList<Quake> merged = new ArrayList<>();
+        Map<Long, List<Entry>> index = new HashMap<>();
+        Set<String> seenUrls = new HashSet<>();
+
+        for (int provider = 0; provider < providerLists.size(); ++provider) {
+            List<Quake> quakes = providerLists.get(provider);
+            if (quakes == null) {
+                continue;
+            }
+            for (Quake quake : quakes) {
+                /** The same event twice from one provider, e.g. when the list moved between
+                 *  the requests of two shards
+                 */
+                String url = quake.getUrl(null);
+                if (url != null && !url.isEmpty() && !seenUrls.add(url)) {
+                    continue;
+                }
+
+                Entry match = findMatch(index, quake, provider);
+                if (match != null) {
+                    match.mMatchedProviders |= 1L << provider;
+                    continue;
+                }
+
+                Entry entry = new Entry(quake, provider);
+                long key = key(timeBucket(quake), latCell(quake.getLatitude()), lonCell(quake.getLongitude()));
+                List<Entry> bucket = index.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>(2);
+                    index.put(key, bucket);
+                }
+                bucket.add(entry);
+                merged.add(quake);
+            }
+        }
+        return merged;
+    }
+
+    /** Find the kept event closest in time which is the same earthquake, looking only in the
+     *  neighbouring time buckets and cells. Towards the poles a degree of longitude gets
+     *  shorter, so more longitude cells are needed to cover MATCH_DISTANCE_KM.
+     */
+    private static Entry findMatch(Map<Long, List<Entry>> index, Quake quake, int provider) {
+        long timeBucket = timeBucket(quake);
+        int latCell = latCell(quake.getLatitude());
+        int lonCell = lonCell(quake.getLongitude());
+
+        double widestLat = Math.min(90, Math.abs(quake.getLatitude()) + CELL_DEGREES);
+        double lonCellKm = KM_PER_DEGREE * CELL_DEGREES * Math.cos(Math.toRadians(widestLat));
+        double lonSpan = Math.ceil(MATCH_DISTANCE_KM / lonCellKm);
+        int lonFrom = (int) -lonSpan;
+        int lonTo = (int) lonSpan;
+        if (lonCellKm <= 0 || 2 * lonSpan + 1 >= LON_CELLS) {
+            // Close to a pole every longitude cell is a neighbour, visit each one once
+            lonFrom = -lonCell;
+            lonTo = LON_CELLS - 1 - lonCell;
+        }
+
+        Entry best = null;
+        long bestTimeDiff = Long.MAX_VALUE;
+        for (long t = timeBucket - 1; t <= timeBucket + 1; ++t) {
+            for (int lat = Math.max(0, latCell - 1); lat <= Math.min(LAT_CELLS - 1, latCell + 1); ++lat) {
+                for (int lon = lonFrom; lon <= lonTo; ++lon) {
+                    List<Entry> bucket = index.get(key(t, lat, Math.floorMod(lonCell + lon, LON_CELLS)));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (Entry entry : bucket) {
+                        long timeDiff = Math.abs(entry.mQuake.getTimeInMillis() - quake.getTimeInMillis());
+                        if (timeDiff < bestTimeDiff && isSameEvent(entry, quake, provider, timeDiff)) {
+                            best = entry;
+                            bestTimeDiff = timeDiff;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** An event of a provider can only stand for one event of each other provider. A missing
+     *  magnitude (NaN) does not rule a match out.
+     */
+    private static boolean isSameEvent(Entry entry, Quake quake, int provider, long timeDiff) {
+        if (entry.mProvider == provider || (entry.mMatchedProviders & (1L << provider)) != 0) {
+            return false;
+        }
+        if (timeDiff > MATCH_TIME_MS) {
+            return false;
+        }
+        if (Math.abs(entry.mQuake.getMagnitude(null) - quake.getMagnitude(null)) > MATCH_MAGNITUDE) {
+            return false;
+        }
+        return distanceKm(entry.mQuake.getLatitude(), entry.mQuake.getLongitude(),
+                quake.getLatitude(), quake.getLongitude()) <= MATCH_DISTANCE_KM;
+    }
+
+    /** Great circle distance using the haversine formula      */
+    private static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static long timeBucket(Quake quake) {
+        return Math.floorDiv(quake.getTimeInMillis(), MATCH_TIME_MS);
+    }
+
+    private static int latCell(double latitude) {
+        return Math.max(0, Math.min(LAT_CELLS - 1, (int) Math.floor((latitude + 90) / CELL_DEGREES)));
+    }
+
+    private static int lonCell(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / CELL_DEGREES), LON_CELLS);
+    }
+
+    private static long key(long timeBucket, int latCell, int lonCell) {
+        return (timeBucket * LAT_CELLS + latCell) * LON_CELLS + lonCell;
+    }
+
+    /** A kept event, with the providers whose copy of it has been dropped       */
+    private static class Entry {
+
+        private final Quake mQuake;
+        private final int mProvider;
+        private long mMatchedProviders;
+
+        Entry(Quake quake, int provider) {
+            mQuake = quake;
+            mProvider = provider;
+        }
+    }
+}
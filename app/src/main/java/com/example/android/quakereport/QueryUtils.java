@@ -1,5 +1,6 @@
 package com.example.android.quakereport;
 
+import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
@@ -9,6 +10,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -17,10 +20,14 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -28,6 +35,7 @@ import java.util.List;
 public final class QueryUtils {
 
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
+    private static final String DETAIL_REQUEST_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"; // ?eventid=<id>&format=geojson
 
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
@@ -61,27 +69,19 @@ public final class QueryUtils {
 
             for (int i = 0 ; i < features.length() ; ++i) {
                 JSONObject element = features.optJSONObject(i);
-                JSONObject properties = element.optJSONObject("properties");
+                JSONObject properties = element == null ? null : element.optJSONObject("properties");
+                if (properties == null) {
+                    continue;
+                }
+                String quakeId = element.optString("id");
                 double quakeMag = properties.optDouble("mag");
                 String quakePlace = properties.optString("place");
                 String url = properties.optString("url");
                 long quakeTime = properties.optLong("time"); // obtained in milliseconds
                 // int quakeTime = features.optJSONObject(i).optJSONObject("properties").optInt("time");
 
-                /** Convert the time into Date object by calling Date constructor             */
-                Date dateObject = new Date(quakeTime);
-                /** Initialize a SimpleDateFormat instance and configure it to provide a
-                 *  more readable representation using the given format
-                 */
-                SimpleDateFormat dateFormatter = new SimpleDateFormat("MMM dd, yyyy");
-                String dateToDisplay = dateFormatter.format(dateObject);
-
-                /** Create another instance of SimpleDateFormat to get the time            */
-                SimpleDateFormat timeFormatter = new SimpleDateFormat("h:mm a");
-                String timeToDisplay = timeFormatter.format(dateObject);
-
-
-                earthquakes.add(new Quake(quakeMag, quakePlace, dateToDisplay, timeToDisplay, url));
+                earthquakes.add(createQuake(quakeId, quakeMag, quakePlace, quakeTime, url,
+                        coordinate(element, 1), coordinate(element, 0)));
             }
 
         } catch (JSONException e) {
@@ -95,6 +95,194 @@ public final class QueryUtils {
         return earthquakes;
     }
 
+    /** Helper method to read one coordinate of a GeoJSON feature, given as
+     *  [longitude, latitude, depth]. GeoJSON allows a null geometry, for which the position
+     *  is unknown and NaN is returned.
+     * @param feature Feature to read from
+     * @param index 0 for the longitude, 1 for the latitude, 2 for the depth
+     * @return Coordinate, or NaN if the feature has none
+     */
+    private static double coordinate(JSONObject feature, int index) {
+        JSONObject geometry = feature.optJSONObject("geometry");
+        JSONArray coordinates = geometry == null ? null : geometry.optJSONArray("coordinates");
+        return coordinates == null ? Double.NaN : coordinates.optDouble(index);
+    }
+
+    /**
+     * Return a list of {@link Quake} objects parsed from an FDSN text response, which is used
+     * instead of GeoJSON on slow links as it is several times smaller. Each event is one line:
+     * EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|Contributor|ContributorID|
+     * MagType|Magnitude|MagAuthor|EventLocationName, after a header line starting with '#'.
+     * This format is part of the FDSN standard, so it is also what non-USGS providers use.
+     * @param provider Provider the response came from, which tells how to link its events
+     */
+    public static ArrayList<Quake> extractEarthquakesFromText(String textResponse, FdsnProvider provider) {
+        Log.v(LOG_TAG, "extractEarthquakesFromText called from QueryUtils ");
+
+        if (TextUtils.isEmpty(textResponse)) {
+            return null;
+        }
+
+        ArrayList<Quake> earthquakes = new ArrayList<>();
+
+        /** Times are given in UTC. The fraction of a second is parsed separately, since
+         *  providers differ in how many digits they give and whether a 'Z' follows
+         */
+        SimpleDateFormat timeParser = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        timeParser.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        for (String line : textResponse.split("\n")) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\\|", -1);
+            if (columns.length < 13) {
+                Log.e(LOG_TAG, "Skipping malformed earthquake text line: " + line);
+                continue;
+            }
+            try {
+                String quakeId = columns[0].trim();
+                long quakeTime = parseFdsnTime(timeParser, columns[1].trim());
+                double quakeLat = Double.parseDouble(columns[2].trim());
+                double quakeLon = Double.parseDouble(columns[3].trim());
+                double quakeMag = Double.parseDouble(columns[10].trim());
+                String url = provider.getEventPageUrl() + quakeId;
+
+                // Only ids the detail query knows are kept, others open the event page instead
+                String detailId = provider.isEventDetailSupported() ? quakeId : null;
+                earthquakes.add(createQuake(detailId, quakeMag, columns[12].trim(), quakeTime, url,
+                        quakeLat, quakeLon));
+            } catch (ParseException | NumberFormatException e) {
+                Log.e(LOG_TAG, "Problem parsing the earthquake text results", e);
+            }
+        }
+
+        return earthquakes;
+    }
+
+    /** Helper method to parse an FDSN time such as 2019-07-23T01:59:12.34Z into milliseconds
+     * @param timeParser Parser for the part up to whole seconds, set to UTC
+     * @param time Time as given in the text response
+     * @return Time in milliseconds since epoch
+     * @throws ParseException if the time is not in the expected form
+     */
+    private static long parseFdsnTime(SimpleDateFormat timeParser, String time) throws ParseException {
+        if (time.endsWith("Z")) {
+            time = time.substring(0, time.length() - 1);
+        }
+        int fractionStart = time.indexOf('.');
+        if (fractionStart < 0) {
+            return timeParser.parse(time).getTime();
+        }
+        String fraction = (time.substring(fractionStart + 1) + "000").substring(0, 3);
+        return timeParser.parse(time.substring(0, fractionStart)).getTime() + Integer.parseInt(fraction);
+    }
+
+    /** Helper method to build the starttime and endtime queries of a window ending now.
+     *  Providers fall back to different windows when these are missing, USGS to the last 30
+     *  days and others to their whole catalog, so they are always given explicitly.
+     * @param nowMillis Current time in milliseconds since epoch
+     * @param days Length of the window in days
+     * @return Queries of the form starttime=2019-06-23T01:59:00&endtime=2019-07-23T02:00:00
+     */
+    public static String buildTimeWindowQuery(long nowMillis, int days) {
+        return buildTimeRangeQuery(nowMillis - days * 24L * 60 * 60 * 1000, nowMillis);
+    }
+
+    /** Helper method to build the starttime and endtime queries of a window, with the ends
+     *  rounded out to whole minutes
+     * @param startMillis Start of the window in milliseconds since epoch
+     * @param endMillis End of the window in milliseconds since epoch
+     * @return Queries of the form starttime=2019-06-23T01:59:00&endtime=2019-07-23T02:00:00
+     */
+    public static String buildTimeRangeQuery(long startMillis, long endMillis) {
+        long minuteMillis = 60 * 1000;
+        SimpleDateFormat timeFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        timeFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return "starttime=" + timeFormatter.format(new Date(startMillis / minuteMillis * minuteMillis))
+                + "&endtime=" + timeFormatter.format(new Date((endMillis / minuteMillis + 1) * minuteMillis));
+    }
+
+    /** Helper method to build a {@link Quake} with its date and time formatted for display
+     * @param quakeTime Time of the earthquake in milliseconds
+     */
+    private static Quake createQuake(String quakeId, double quakeMag, String quakePlace, long quakeTime, String url,
+                                     double quakeLat, double quakeLon) {
+        /** Convert the time into Date object by calling Date constructor             */
+        Date dateObject = new Date(quakeTime);
+        /** Initialize a SimpleDateFormat instance and configure it to provide a
+         *  more readable representation using the given format
+         */
+        SimpleDateFormat dateFormatter = new SimpleDateFormat("MMM dd, yyyy");
+        String dateToDisplay = dateFormatter.format(dateObject);
+
+        /** Create another instance of SimpleDateFormat to get the time            */
+        SimpleDateFormat timeFormatter = new SimpleDateFormat("h:mm a");
+        String timeToDisplay = timeFormatter.format(dateObject);
+
+        return new Quake(quakeId, quakeMag, quakePlace, dateToDisplay, timeToDisplay, url,
+                quakeTime, quakeLat, quakeLon);
+    }
+
+    /**
+     * Return a {@link QuakeDetail} object built up from parsing the per-event detail JSON
+     * response. Unlike the list query, the detail response is a single GeoJSON Feature.
+     */
+    public static QuakeDetail extractQuakeDetail(String jsonResponse) {
+        Log.v(LOG_TAG, "extractQuakeDetail called from QueryUtils ");
+
+        if (TextUtils.isEmpty(jsonResponse)) {
+            return null;
+        }
+
+        try {
+            JSONObject feature = new JSONObject(jsonResponse);
+            JSONObject properties = feature.getJSONObject("properties");
+
+            return new QuakeDetail(feature.optString("id"),
+                    properties.optString("title"),
+                    properties.optDouble("mag"),
+                    properties.optString("magType"),
+                    properties.optString("place"),
+                    properties.optLong("time"),
+                    properties.optString("url"),
+                    coordinate(feature, 1),
+                    coordinate(feature, 0),
+                    coordinate(feature, 2),
+                    properties.optInt("felt"),
+                    properties.isNull("alert") ? "" : properties.optString("alert"),
+                    properties.optString("status"),
+                    properties.optInt("tsunami") == 1);
+
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Problem parsing the earthquake detail JSON results", e);
+        }
+        return null;
+    }
+
+    /** Helper method to fetch and parse the detail of a single event. Called on a worker thread
+     *  by both {@link QuakeDetailPrefetcher} and {@link QuakeDetailLoader}
+     * @param eventId USGS event id
+     * @return Parsed detail, or null if the request or parsing failed
+     */
+    public static QuakeDetail fetchQuakeDetail(String eventId) {
+        if (TextUtils.isEmpty(eventId)) {
+            return null;
+        }
+
+        Uri.Builder uriBuilder = Uri.parse(DETAIL_REQUEST_URL).buildUpon();
+        uriBuilder.appendQueryParameter("eventid", eventId);
+        uriBuilder.appendQueryParameter("format", "geojson");
+
+        String jsonResponse = "";
+        try {
+            jsonResponse = makeHttpRequest(createUrl(uriBuilder.toString()));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error in getting earthquake detail data", e);
+        }
+        return extractQuakeDetail(jsonResponse);
+    }
+
 
     // USER-DEFINED HELPER METHODS
 
@@ -123,6 +311,20 @@ public final class QueryUtils {
      * @throws IOException thrown at inputStream.close()
      */
     public static String makeHttpRequest(URL url) throws IOException{
+        return makeHttpRequest(url, true, null);
+    }
+
+    /** Helper method to make GET request, optionally asking for a gzip compressed response.
+     *  Setting Accept-Encoding ourselves turns off the transparent decompression of
+     *  HttpURLConnection, so the body is read as received and its size and timing can be
+     *  added to the stats of the load before it is decompressed.
+     * @param url URL to make request to
+     * @param gzip Whether to ask for a compressed response
+     * @param stats Stats of the load this request belongs to, or null if it is not measured
+     * @return Received response in String
+     * @throws IOException thrown at inputStream.close()
+     */
+    public static String makeHttpRequest(URL url, boolean gzip, RequestPlanner.LoadStats stats) throws IOException{
         Log.v(LOG_TAG, "makeHttpRequest called here from QueryUtils ");
         String jsonResponse = "";
 
@@ -133,14 +335,26 @@ public final class QueryUtils {
         HttpURLConnection urlConnection = null;
         InputStream inputStream = null;
         try {
+            long startTime = stats != null ? stats.now() : 0;
             urlConnection = (HttpURLConnection)url.openConnection();
             urlConnection.setRequestMethod("GET");
             urlConnection.setReadTimeout(10000);
             urlConnection.setConnectTimeout(15000);
+            urlConnection.setRequestProperty("Accept-Encoding", gzip ? "gzip" : "identity");
             urlConnection.connect();
             if (urlConnection.getResponseCode() == 200) {
+                long responseTime = stats != null ? stats.now() : 0;
                 inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+                byte[] body = readBytes(inputStream);
+                if (stats != null) {
+                    stats.recordRequest(startTime, responseTime, stats.now(), body.length);
+                }
+
+                InputStream bodyStream = new ByteArrayInputStream(body);
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    bodyStream = new GZIPInputStream(bodyStream);
+                }
+                jsonResponse = readFromStream(bodyStream);
             } else {
                 Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
             }
@@ -157,6 +371,22 @@ public final class QueryUtils {
         return jsonResponse;
     }
 
+    /** Helper method to read the whole body as received, so its wire size is known
+     * @param inputStream Received data through InputStream
+     * @return Raw bytes of the body
+     * @throws IOException thrown at inputStream.read()
+     */
+    private static byte[] readBytes(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count = inputStream.read(buffer);
+        while (count != -1) {
+            output.write(buffer, 0, count);
+            count = inputStream.read(buffer);
+        }
+        return output.toByteArray();
+    }
+
     /** Helper method to facilitate reading of received response from request website using
      *  InputStream
      *  InputStreamReader is a bridge from byte to character streams, using the defined charset
@@ -172,7 +402,7 @@ public final class QueryUtils {
             BufferedReader bfReader = new BufferedReader(inputStreamReader);
             String line = bfReader.readLine();
             while(line != null) {
-                output.append(line);
+                output.append(line).append('\n');
                 line = bfReader.readLine();
             }
         }
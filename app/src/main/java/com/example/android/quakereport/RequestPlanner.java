@@ -0,0 +1,415 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Plans how the earthquake list is requested, based on how the network has behaved lately.
+ *  Every load of the list reports, through a {@link LoadStats}, the latency of its requests and
+ *  the bytes they received over the whole load. Measuring the load as a whole, rather than
+ *  each request, keeps concurrent shards, which each see only a share of the link, from
+ *  looking like a slow network; and since the list only shows once every provider answered,
+ *  a slow provider rightly counts as part of the time to first content.
+ *  From those samples, seeded by the type of the active network, the planner estimates
+ *  throughput per connection and latency, and picks page size, wire format, compression and
+ *  number of parallel shards so the list is expected to appear within TARGET_TIME_MS.
+ *  It also caps background traffic on metered links: refreshes of already loaded data and
+ *  the prefetch of event details.
+ *  Estimates are kept per transport type, since wifi numbers say nothing about cellular.
+ */
+public final class RequestPlanner {
+
+    private static final String TAG = RequestPlanner.class.getSimpleName();
+
+    /** Target time-to-first-content for the earthquake list       */
+    private static final long TARGET_TIME_MS = 2000;
+    /** Smallest page worth asking for, even on a very slow link       */
+    private static final int MIN_PAGE_SIZE = 10;
+    /** Never split a request into more parallel connections than this      */
+    private static final int MAX_SHARDS = 4;
+    /** Below this many events per shard, an extra connection costs more than it saves       */
+    private static final int MIN_SHARD_SIZE = 50;
+    /** Throughput (bytes per ms) below which the compact text format is used     */
+    private static final double SLOW_LINK_BYTES_PER_MS = 50;
+    /** Responses smaller than this are dominated by latency, so they only update latency     */
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 16 * 1024;
+    /** Weight of a new sample in the moving averages        */
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    /** A loaded list is not refreshed again within this time, on any link      */
+    private static final long REFRESH_MIN_INTERVAL_MS = 5 * 60 * 1000;
+    /** On metered links, background traffic (list refreshes and detail prefetch) shares an
+     *  hourly byte budget
+     */
+    private static final long METERED_BACKGROUND_WINDOW_MS = 60 * 60 * 1000;
+    private static final long METERED_BACKGROUND_BUDGET_BYTES = 512 * 1024;
+    /** Wire size assumed for one detail GeoJSON, which lists every product of the event    */
+    private static final long DETAIL_BYTES_ESTIMATE = 40 * 1024;
+    /** Rows above and below the visible ones to prefetch details for on unmetered links   */
+    private static final int UNMETERED_PREFETCH_MARGIN = 5;
+
+    public static final String FORMAT_GEOJSON = "geojson";
+    public static final String FORMAT_TEXT = "text";
+
+    static final int TRANSPORT_WIFI = 0;
+    static final int TRANSPORT_CELLULAR = 1;
+    static final int TRANSPORT_OTHER = 2;
+
+    /** Seeds used until a transport has samples of its own       */
+    private static final double[] SEED_BYTES_PER_MS = {500, 60, 100};
+    private static final double[] SEED_LATENCY_MS = {80, 400, 250};
+
+    /** Uncompressed bytes per event of each format, and their gzip ratio, refined by samples  */
+    private static final double GEOJSON_BYTES_PER_EVENT = 1000;
+    private static final double TEXT_BYTES_PER_EVENT = 180;
+    private static final double GZIP_RATIO = 0.25;
+
+    private static RequestPlanner sInstance;
+
+    private final Clock mClock;
+    private final double[] mBytesPerMs = new double[3];
+    private final double[] mLatencyMs = new double[3];
+    private final boolean[] mHasThroughputSample = new boolean[3];
+    private final boolean[] mHasLatencySample = new boolean[3];
+    private double mGeoJsonBytesPerEvent = GEOJSON_BYTES_PER_EVENT;
+    private double mTextBytesPerEvent = TEXT_BYTES_PER_EVENT;
+
+    private int mTransport = TRANSPORT_OTHER;
+    private boolean mMetered = true;
+    private int mLinkBytesPerMs = 0;
+
+    private boolean mHasLoaded = false;
+    private long mLastLoadMs = 0;
+    private long mBackgroundWindowStartMs = 0;
+    private long mBackgroundWindowBytes = 0;
+
+    /** Constructor for class RequestPlanner. Apart from {@link #getInstance()}, only used by
+     *  tests, which run on the JVM where SystemClock is not available.
+     * @param clock Source of elapsed time in ms
+     */
+    RequestPlanner(Clock clock) {
+        mClock = clock;
+        for (int i = 0; i < 3; ++i) {
+            mBytesPerMs[i] = SEED_BYTES_PER_MS[i];
+            mLatencyMs[i] = SEED_LATENCY_MS[i];
+        }
+    }
+
+    public static synchronized RequestPlanner getInstance() {
+        if (sInstance == null) {
+            sInstance = new RequestPlanner(new Clock() {
+                @Override
+                public long elapsedRealtime() {
+                    return SystemClock.elapsedRealtime();
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /** Read the type of the active network. Called before planning, so samples recorded
+     *  afterwards are attributed to the right transport.
+     * @param context Context used to reach the ConnectivityManager
+     */
+    public synchronized void updateNetwork(Context context) {
+        ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        Network network = connManager.getActiveNetwork();
+        NetworkCapabilities capabilities = network == null ? null : connManager.getNetworkCapabilities(network);
+        if (capabilities == null) {
+            setNetwork(TRANSPORT_OTHER, true, 0);
+            return;
+        }
+
+        int transport;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)
+                || capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            transport = TRANSPORT_WIFI;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            transport = TRANSPORT_CELLULAR;
+        } else {
+            transport = TRANSPORT_OTHER;
+        }
+        // Kbps to bytes per ms is a division by 8
+        setNetwork(transport,
+                !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+                capabilities.getLinkDownstreamBandwidthKbps() / 8);
+    }
+
+    /** Set the network directly, used by updateNetwork and by tests
+     * @param transport One of the TRANSPORT_ constants
+     * @param metered Whether traffic on the network is metered
+     * @param linkBytesPerMs Bandwidth reported by the system for the link, 0 if unknown
+     */
+    synchronized void setNetwork(int transport, boolean metered, int linkBytesPerMs) {
+        mTransport = transport;
+        mMetered = metered;
+        mLinkBytesPerMs = linkBytesPerMs;
+    }
+
+    /** Start measuring a load of the list. The returned stats are passed to every request of
+     *  the load and then given back to recordLoad.
+     */
+    public LoadStats startLoad() {
+        return new LoadStats(mClock);
+    }
+
+    /** Record a finished load of the list
+     * @param stats Stats the requests of the load were made with
+     * @param connections Number of requests which ran at the same time
+     */
+    public synchronized void recordLoad(LoadStats stats, int connections) {
+        synchronized (stats) {
+            if (stats.mRequests == 0) {
+                return;
+            }
+            mHasLoaded = true;
+            mLastLoadMs = stats.mEndMs;
+            long latencyMs = stats.mLatencySumMs / stats.mRequests;
+            mLatencyMs[mTransport] = average(mLatencyMs[mTransport], latencyMs, mHasLatencySample[mTransport]);
+            mHasLatencySample[mTransport] = true;
+
+            if (stats.mWireBytes >= MIN_THROUGHPUT_SAMPLE_BYTES) {
+                long transferMs = Math.max(1, stats.mEndMs - stats.mStartMs - latencyMs);
+                double bytesPerMs = (double) stats.mWireBytes / transferMs / Math.max(1, connections);
+                mBytesPerMs[mTransport] = average(mBytesPerMs[mTransport], bytesPerMs, mHasThroughputSample[mTransport]);
+                mHasThroughputSample[mTransport] = true;
+            }
+        }
+    }
+
+    /** Record the uncompressed size of a parsed page, to refine the bytes per event estimate
+     * @param format Format of the page
+     * @param bytes Uncompressed size of the page
+     * @param events Number of events in it
+     */
+    public synchronized void recordPage(String format, long bytes, int events) {
+        if (events <= 0) {
+            return;
+        }
+        double bytesPerEvent = (double) bytes / events;
+        if (FORMAT_TEXT.equals(format)) {
+            mTextBytesPerEvent = average(mTextBytesPerEvent, bytesPerEvent, true);
+        } else {
+            mGeoJsonBytesPerEvent = average(mGeoJsonBytesPerEvent, bytesPerEvent, true);
+        }
+    }
+
+    /** Choose how to request a page of earthquakes
+     * @param requestedLimit Number of events the user asked for in the settings
+     * @param providerCount Number of providers the page is requested from in parallel
+     * @return The plan for the request of each provider
+     */
+    public synchronized Plan plan(int requestedLimit, int providerCount) {
+        double bytesPerMs = estimatedBytesPerMs();
+        double latencyMs = mLatencyMs[mTransport];
+
+        /** Compression costs a little CPU but saves most of the bytes, so it is only skipped
+         *  on fast unmetered links
+         */
+        boolean gzip = mMetered || bytesPerMs < 10 * SLOW_LINK_BYTES_PER_MS;
+        String format = bytesPerMs < SLOW_LINK_BYTES_PER_MS ? FORMAT_TEXT : FORMAT_GEOJSON;
+        double bytesPerEvent = (FORMAT_TEXT.equals(format) ? mTextBytesPerEvent : mGeoJsonBytesPerEvent)
+                * (gzip ? GZIP_RATIO : 1);
+        double budgetMs = Math.max(0, TARGET_TIME_MS - latencyMs);
+
+        /** Parallel shards add connections when one cannot bring the whole page in time. That
+         *  is only worth it on unmetered links, and for pages large enough to split
+         */
+        int maxShards = mMetered ? 1 : Math.max(1, MAX_SHARDS / Math.max(1, providerCount));
+        int shards = 1;
+        while (shards < maxShards
+                && requestedLimit * bytesPerEvent / (shards * bytesPerMs) > budgetMs
+                && requestedLimit / (shards + 1) >= MIN_SHARD_SIZE) {
+            ++shards;
+        }
+
+        /** Page size is what the shards bring in the time left after one round trip, but never
+         *  more than the user asked for
+         */
+        int fitting = (int) (budgetMs * shards * bytesPerMs / bytesPerEvent);
+        int limit = Math.min(requestedLimit, Math.max(MIN_PAGE_SIZE, fitting));
+        shards = Math.max(1, Math.min(shards, limit / MIN_SHARD_SIZE));
+
+        Plan plan = new Plan(limit, format, gzip, shards, (long) (limit * bytesPerEvent) * Math.max(1, providerCount));
+        Log.v(TAG, "plan: " + plan + " at " + bytesPerMs + " B/ms per connection, " + latencyMs + " ms");
+        return plan;
+    }
+
+    /** Decide whether an already loaded list may be refreshed. On every link the last load
+     *  must be at least REFRESH_MIN_INTERVAL_MS old, so coming back to the list from another
+     *  screen does not reload it. On metered links the refresh also needs room in the hourly
+     *  background budget, which it is charged against when allowed.
+     * @param plan Plan the refresh would use
+     * @return true if the refresh may go ahead
+     */
+    public synchronized boolean allowRefresh(Plan plan) {
+        long now = mClock.elapsedRealtime();
+        if (mHasLoaded && now - mLastLoadMs < REFRESH_MIN_INTERVAL_MS) {
+            return false;
+        }
+        return chargeBackground(plan.getEstimatedBytes());
+    }
+
+    /** Number of rows around the visible ones whose details are prefetched. On metered links
+     *  only the visible rows are, since the detail GeoJSON is large.
+     */
+    public synchronized int prefetchMargin() {
+        return mMetered ? 0 : UNMETERED_PREFETCH_MARGIN;
+    }
+
+    /** Decide whether one detail may be prefetched. Always true on unmetered links; on metered
+     *  links it is charged against the hourly background budget.
+     * @return true if the prefetch may go ahead
+     */
+    public synchronized boolean allowPrefetch() {
+        return chargeBackground(DETAIL_BYTES_ESTIMATE);
+    }
+
+    /** Charge background traffic against the metered budget
+     * @param bytes Expected wire size of the traffic
+     * @return true if the link is unmetered or the budget has room, false otherwise
+     */
+    private boolean chargeBackground(long bytes) {
+        if (!mMetered) {
+            return true;
+        }
+        long now = mClock.elapsedRealtime();
+        if (now - mBackgroundWindowStartMs > METERED_BACKGROUND_WINDOW_MS) {
+            mBackgroundWindowStartMs = now;
+            mBackgroundWindowBytes = 0;
+        }
+        if (mBackgroundWindowBytes + bytes > METERED_BACKGROUND_BUDGET_BYTES) {
+            return false;
+        }
+        mBackgroundWindowBytes += bytes;
+        return true;
+    }
+
+    /** Use the measured throughput once there is one. Until then use the seed, capped by what
+     *  the system reports for the link since the seed may be optimistic.
+     */
+    private double estimatedBytesPerMs() {
+        double bytesPerMs = mBytesPerMs[mTransport];
+        if (!mHasThroughputSample[mTransport] && mLinkBytesPerMs > 0) {
+            bytesPerMs = Math.min(bytesPerMs, mLinkBytesPerMs);
+        }
+        return Math.max(1, bytesPerMs);
+    }
+
+    private static double average(double current, double sample, boolean hasSamples) {
+        if (!hasSamples) {
+            return sample;
+        }
+        return current + SAMPLE_WEIGHT * (sample - current);
+    }
+
+    /** Requests and bytes of one load of the list, filled in by {@link QueryUtils} from
+     *  the threads of all its shards
+     */
+    public static class LoadStats {
+
+        private final Clock mClock;
+        private final long mStartMs;
+        private long mWireBytes = 0;
+        private long mLatencySumMs = 0;
+        private int mRequests = 0;
+        private long mEndMs;
+
+        LoadStats(Clock clock) {
+            mClock = clock;
+            mStartMs = clock.elapsedRealtime();
+            mEndMs = mStartMs;
+        }
+
+        public long now() {
+            return mClock.elapsedRealtime();
+        }
+
+        /** Record one request of the load
+         * @param startMs Time the request was started
+         * @param responseMs Time the response code was available
+         * @param endMs Time the body was read
+         * @param wireBytes Size of the body as received, before decompression
+         */
+        public synchronized void recordRequest(long startMs, long responseMs, long endMs, long wireBytes) {
+            mLatencySumMs += responseMs - startMs;
+            mWireBytes += wireBytes;
+            mEndMs = Math.max(mEndMs, endMs);
+            ++mRequests;
+        }
+    }
+
+    /** Source of elapsed time, SystemClock.elapsedRealtime() outside of tests       */
+    interface Clock {
+        long elapsedRealtime();
+    }
+
+    /** How one page of earthquakes is requested       */
+    public static class Plan {
+
+        private final int mLimit;
+        private final String mFormat;
+        private final boolean mGzip;
+        private final int mShardCount;
+        private final long mEstimatedBytes;
+
+        Plan(int limit, String format, boolean gzip, int shardCount, long estimatedBytes) {
+            mLimit = limit;
+            mFormat = format;
+            mGzip = gzip;
+            mShardCount = shardCount;
+            mEstimatedBytes = estimatedBytes;
+        }
+
+        public int getLimit() {
+            return mLimit;
+        }
+
+        public String getFormat() {
+            return mFormat;
+        }
+
+        public boolean isGzip() {
+            return mGzip;
+        }
+
+        public int getShardCount() {
+            return mShardCount;
+        }
+
+        /** Estimated wire size of the page over all providers          */
+        public long getEstimatedBytes() {
+            return mEstimatedBytes;
+        }
+
+        /** Split the page into shard urls. FDSN offset is 1-based, so shard i starts at
+         *  1 + i * shardSize and the last shard takes what is left.
+         * @param baseUrl Query url with the filter parameters already set
+         * @param format Format to request, which may differ from the planned one when the
+         *               provider does not support it
+         * @return One url per shard, in list order
+         */
+        public List<String> buildShardUrls(String baseUrl, String format) {
+            List<String> urls = new ArrayList<>();
+            String separator = baseUrl.indexOf('?') < 0 ? "?" : "&";
+            int shardSize = (mLimit + mShardCount - 1) / mShardCount;
+            for (int offset = 0; offset < mLimit; offset += shardSize) {
+                urls.add(baseUrl + separator + "format=" + format
+                        + "&limit=" + Math.min(shardSize, mLimit - offset)
+                        + "&offset=" + (offset + 1));
+            }
+            return urls;
+        }
+
+        @Override
+        public String toString() {
+            return "limit=" + mLimit + " format=" + mFormat + " gzip=" + mGzip + " shards=" + mShardCount;
+        }
+    }
+}
@@ -34,13 +34,23 @@ public class SettingsActivity extends AppCompatActivity {
 
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
+
+            /** The fences are only imported when the text changes, here it is just counted     */
+            Preference geofences = findPreference(getString(R.string.settings_geofences_key));
+            geofences.setOnPreferenceChangeListener(this);
+            String definitions = PreferenceManager.getDefaultSharedPreferences(geofences.getContext())
+                    .getString(geofences.getKey(), "");
+            setGeofencesSummary(geofences, GeofenceStore.parseDefinitions(definitions).size());
         }
 
 
         @Override
         public boolean onPreferenceChange(Preference preference, Object value) {
             String stringValue = value.toString();
-            if (preference instanceof ListPreference) {
+            if (getString(R.string.settings_geofences_key).equals(preference.getKey())) {
+                setGeofencesSummary(preference, GeofenceStore.importDefinitions(getActivity(), stringValue));
+            }
+            else if (preference instanceof ListPreference) {
                 ListPreference listPreference = (ListPreference) preference;
                 int prefIndex = listPreference.findIndexOfValue(stringValue);
                 if (prefIndex >= 0) {
@@ -55,6 +65,15 @@ public class SettingsActivity extends AppCompatActivity {
             return true;
         }
 
+        private void setGeofencesSummary(Preference preference, int count) {
+            if (count == 0) {
+                preference.setSummary(R.string.settings_geofences_none);
+            }
+            else {
+                preference.setSummary(getResources().getQuantityString(R.plurals.settings_geofences_count, count, count));
+            }
+        }
+
         private void bindPreferenceSummaryToValue(Preference preference) {
             preference.setOnPreferenceChangeListener(this);
             SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(preference.getContext());
@@ -0,0 +1,142 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Runs a {@link FederatedQuery} against stub providers on localhost: one answering GeoJSON,
+ *  one answering only the FDSN text format and one failing every request.
+ */
+public class FederatedQueryTest {
+
+    private static final String GEOJSON = "{\"type\":\"FeatureCollection\",\"features\":["
+            + "{\"id\":\"us1\",\"properties\":{\"mag\":5.1,\"place\":\"Off the east coast of Honshu\","
+            + "\"time\":1563847152340,\"url\":\"https://usgs.example/us1\"},"
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[142.1,38.3,10]}},"
+            + "{\"id\":\"us2\",\"properties\":{\"mag\":4.6,\"place\":\"Fiji region\","
+            + "\"time\":1563850752340,\"url\":\"https://usgs.example/us2\"},"
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[179.95,-17.9,550]}},"
+            + "{\"id\":\"us3\",\"properties\":{\"mag\":6.0,\"place\":\"Central Chile\","
+            + "\"time\":1563854352340,\"url\":\"https://usgs.example/us3\"},"
+            + "\"geometry\":null}]}";
+
+    private static final String TEXT = "#EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|"
+            + "Contributor|ContributorID|MagType|Magnitude|MagAuthor|EventLocationName\n"
+            + "emsc1|2019-07-23T01:59:14.1Z|38.35|142.05|12.0|EMSC|EMSC-RTS|EMSC|1|mb|5.0|EMSC|NEAR EAST COAST OF HONSHU, JAPAN\n"
+            + "emsc2|2019-07-23T02:59:13.0Z|-17.95|-179.95|560.0|EMSC|EMSC-RTS|EMSC|2|mb|4.5|EMSC|FIJI ISLANDS REGION\n"
+            + "emsc3|2019-07-23T05:00:00Z|36.1|28.0|10.0|EMSC|EMSC-RTS|EMSC|3|ML|3.9|EMSC|DODECANESE ISLANDS, GREECE\n";
+
+    private StubFdsnServer mGeoJsonServer;
+    private StubFdsnServer mTextServer;
+    private StubFdsnServer mFailingServer;
+    private RequestPlanner mPlanner;
+
+    @Before
+    public void setUp() throws IOException {
+        mGeoJsonServer = new StubFdsnServer(GEOJSON);
+        mTextServer = new StubFdsnServer(TEXT);
+        mFailingServer = new StubFdsnServer("", 500, 0, 0);
+        mPlanner = new RequestPlanner(new RequestPlanner.Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return System.nanoTime() / 1000000;
+            }
+        });
+        mPlanner.setNetwork(RequestPlanner.TRANSPORT_WIFI, false, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mGeoJsonServer.close();
+        mTextServer.close();
+        mFailingServer.close();
+    }
+
+    private FdsnProvider geoJsonProvider() {
+        return new FdsnProvider("usgs-stub", mGeoJsonServer.getQueryUrl(), "https://usgs.example/", true, true);
+    }
+
+    private FdsnProvider textProvider() {
+        return new FdsnProvider("emsc-stub", mTextServer.getQueryUrl(), "https://emsc.example/", false, false);
+    }
+
+    private FdsnProvider failingProvider() {
+        return new FdsnProvider("failing-stub", mFailingServer.getQueryUrl(), "https://failing.example/", true, false);
+    }
+
+    @Test
+    public void mergesProvidersAndSurvivesAFailingOne() {
+        List<FdsnProvider> providers = Arrays.asList(geoJsonProvider(), textProvider(), failingProvider());
+        FederatedQuery query = new FederatedQuery(providers, "minmag=3.0&orderby=time", mPlanner);
+
+        ArrayList<Quake> merged = query.fetch(mPlanner.plan(30, providers.size()));
+
+        assertNotNull(merged);
+        Map<String, Quake> byUrl = new HashMap<>();
+        for (Quake quake : merged) {
+            byUrl.put(quake.getUrl(null), quake);
+        }
+        // Honshu and Fiji are reported by both and kept from the preferred provider
+        assertEquals(4, merged.size());
+        assertTrue(byUrl.containsKey("https://usgs.example/us1"));
+        assertTrue(byUrl.containsKey("https://usgs.example/us2"));
+        assertTrue(byUrl.containsKey("https://usgs.example/us3"));
+        assertTrue(byUrl.containsKey("https://emsc.example/emsc3"));
+
+        // A text-only provider without the detail query opens the event page instead
+        Quake greece = byUrl.get("https://emsc.example/emsc3");
+        assertNull(greece.getId());
+        assertEquals(3.9, greece.getMagnitude(null), 1e-9);
+        assertEquals(36.1, greece.getLatitude(), 1e-9);
+
+        // A null geometry leaves the position unknown
+        assertTrue(Double.isNaN(byUrl.get("https://usgs.example/us3").getLatitude()));
+    }
+
+    @Test
+    public void sendsTheFiltersAndPlannedFormatToEachProvider() {
+        List<FdsnProvider> providers = Arrays.asList(geoJsonProvider(), textProvider());
+        // 2019-07-23T01:59:12.340Z, the window is rounded out to whole minutes
+        String window = QueryUtils.buildTimeWindowQuery(1563847152340L, 30);
+        assertEquals("starttime=2019-06-23T01:59:00&endtime=2019-07-23T02:00:00", window);
+        FederatedQuery query = new FederatedQuery(providers, "minmag=3.0&orderby=time&" + window, mPlanner);
+        RequestPlanner.Plan plan = mPlanner.plan(30, providers.size());
+
+        query.fetch(plan);
+
+        // Both providers get the same window, so neither fills the list with older events
+        String filters = "/fdsnws/event/1/query?minmag=3.0&orderby=time&" + window + "&";
+        List<String> geoJsonRequests = mGeoJsonServer.getRequests();
+        assertEquals(1, geoJsonRequests.size());
+        assertTrue(geoJsonRequests.get(0), geoJsonRequests.get(0).startsWith(filters));
+        assertTrue(geoJsonRequests.get(0), geoJsonRequests.get(0).contains("format=" + plan.getFormat()));
+        assertTrue(geoJsonRequests.get(0), geoJsonRequests.get(0).contains("limit=30"));
+
+        List<String> textRequests = mTextServer.getRequests();
+        assertEquals(1, textRequests.size());
+        assertTrue(textRequests.get(0), textRequests.get(0).startsWith(filters));
+        assertTrue(textRequests.get(0), textRequests.get(0).contains("format=text"));
+    }
+
+    @Test
+    public void returnsNothingWhenNoProviderAnswers() {
+        List<FdsnProvider> providers = Arrays.asList(failingProvider());
+        FederatedQuery query = new FederatedQuery(providers, "minmag=3.0", mPlanner);
+
+        ArrayList<Quake> merged = query.fetch(mPlanner.plan(30, providers.size()));
+
+        assertNull(merged);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceEngineTest {
+
+    /** Length of a degree of latitude on the sphere Geofence uses       */
+    private static final double KM_PER_DEGREE = 6371.0 * Math.PI / 180;
+
+    private static Quake quake(double magnitude, double latitude, double longitude) {
+        String url = "https://usgs.example/" + latitude + "," + longitude;
+        return new Quake(url, magnitude, "", "", "", url, 0, latitude, longitude);
+    }
+
+    private static List<GeofenceEngine.Alert> evaluate(Geofence fence, Quake... quakes) {
+        return new GeofenceEngine(Collections.singletonList(fence)).evaluate(Arrays.asList(quakes));
+    }
+
+    private static boolean alerts(Geofence fence, double magnitude, double latitude, double longitude) {
+        return !evaluate(fence, quake(magnitude, latitude, longitude)).isEmpty();
+    }
+
+    @Test
+    public void circleEdge() {
+        Geofence tokyo = Geofence.circle("tokyo", "Tokyo", 0, 35.68, 139.69, 100);
+
+        assertTrue(alerts(tokyo, 5, 35.68, 139.69));
+        assertTrue(alerts(tokyo, 5, 35.68 + 99.5 / KM_PER_DEGREE, 139.69));
+        assertFalse(alerts(tokyo, 5, 35.68 + 100.5 / KM_PER_DEGREE, 139.69));
+        // East and west the bounding box is wider than the circle, the exact test decides
+        double lonPer100Km = 100 / (KM_PER_DEGREE * Math.cos(Math.toRadians(35.68)));
+        assertTrue(alerts(tokyo, 5, 35.68, 139.69 + 0.99 * lonPer100Km));
+        assertFalse(alerts(tokyo, 5, 35.68, 139.69 + 1.01 * lonPer100Km));
+    }
+
+    @Test
+    public void circleAcrossTheAntimeridian() {
+        Geofence fiji = Geofence.circle("fiji", "Fiji", 0, -17.8, 179.9, 50);
+
+        assertTrue(alerts(fiji, 5, -17.8, 179.99));
+        assertTrue(alerts(fiji, 5, -17.8, -179.8));
+        assertTrue(alerts(fiji, 5, -17.9, -180.0));
+        assertFalse(alerts(fiji, 5, -17.8, 179.0));
+        assertFalse(alerts(fiji, 5, -17.8, -179.0));
+    }
+
+    @Test
+    public void circleAroundAPole() {
+        Geofence arctic = Geofence.circle("arctic", "Arctic", 0, 90, 0, 500);
+
+        assertTrue(alerts(arctic, 5, 86, 120));
+        assertTrue(alerts(arctic, 5, 86, -60));
+        assertFalse(alerts(arctic, 5, 85, 0));
+    }
+
+    @Test
+    public void polygonAcrossTheAntimeridian() {
+        Geofence box = Geofence.polygon("box", "Box", 0,
+                new double[] {-20, -20, -15, -15}, new double[] {175, -175, -175, 175});
+
+        assertTrue(alerts(box, 5, -17, 179.9));
+        assertTrue(alerts(box, 5, -17, -179.9));
+        assertTrue(alerts(box, 5, -17, 180));
+        assertFalse(alerts(box, 5, -17, 170));
+        assertFalse(alerts(box, 5, -17, -170));
+        assertFalse(alerts(box, 5, -21, 179.9));
+    }
+
+    @Test
+    public void polygonAroundAPole() {
+        double[] latitudes = {-60, -60, -60, -60, -65};
+        double[] eastward = {-180, -90, 0, 90, 150};
+        double[] westward = {150, 90, 0, -90, -180};
+        List<Geofence> fences = Arrays.asList(
+                Geofence.polygon("east", "Antarctica", 0, latitudes, eastward),
+                Geofence.polygon("west", "Antarctica", 0, new double[] {-65, -60, -60, -60, -60}, westward));
+
+        for (Geofence antarctica : fences) {
+            assertTrue(alerts(antarctica, 5, -89, 0));
+            assertTrue(alerts(antarctica, 5, -90, 10));
+            assertTrue(alerts(antarctica, 5, -70, 45));
+            assertTrue(alerts(antarctica, 5, -61, -179));
+            // Between the vertices at -65/150 and -60/180 the edge is at about -61.7 at 170
+            assertTrue(alerts(antarctica, 5, -62, 170));
+            assertFalse(alerts(antarctica, 5, -61, 170));
+            assertFalse(alerts(antarctica, 5, -50, 0));
+            assertFalse(alerts(antarctica, 5, 60, 0));
+        }
+
+        Geofence arctic = Geofence.polygon("arctic", "Arctic", 0,
+                new double[] {70, 70, 70, 70}, new double[] {10, 100, -170, -80});
+        assertTrue(alerts(arctic, 5, 80, 0));
+        assertTrue(alerts(arctic, 5, 90, 0));
+        assertFalse(alerts(arctic, 5, 69, 55));
+        assertFalse(alerts(arctic, 5, -80, 0));
+    }
+
+    @Test
+    public void magnitudeThreshold() {
+        Geofence tokyo = Geofence.circle("tokyo", "Tokyo", 5.0, 35.68, 139.69, 100);
+
+        assertTrue(alerts(tokyo, 5.0, 35.68, 139.69));
+        assertTrue(alerts(tokyo, 7.2, 35.68, 139.69));
+        assertFalse(alerts(tokyo, 4.99, 35.68, 139.69));
+        assertFalse(alerts(tokyo, Double.NaN, 35.68, 139.69));
+    }
+
+    @Test
+    public void missingPositionNeverMatches() {
+        Geofence world = Geofence.circle("world", "World", 0, 0, 0, 20000);
+
+        assertFalse(alerts(world, 5, Double.NaN, Double.NaN));
+        assertTrue(alerts(world, 5, 10, 10));
+    }
+
+    @Test
+    public void alertPerEarthquakeAndFence() {
+        Geofence tokyo = Geofence.circle("tokyo", "Tokyo", 0, 35.68, 139.69, 100);
+        Geofence kanto = Geofence.polygon("kanto", "Kanto", 0,
+                new double[] {34.5, 34.5, 37.0, 37.0}, new double[] {138.5, 141.0, 141.0, 138.5});
+        Quake quake = quake(5, 35.7, 139.7);
+
+        List<GeofenceEngine.Alert> alerts = new GeofenceEngine(Arrays.asList(tokyo, kanto))
+                .evaluate(Arrays.asList(quake, quake(5, 0, 0)));
+
+        assertEquals(2, alerts.size());
+        assertSame(quake, alerts.get(0).getQuake());
+        assertSame(quake, alerts.get(1).getQuake());
+    }
+
+    @Test
+    public void minMagnitudeIsTheLowestThreshold() {
+        Geofence tokyo = Geofence.circle("tokyo", "Tokyo", 4.5, 35.68, 139.69, 100);
+        Geofence fiji = Geofence.circle("fiji", "Fiji", 2.5, -17.8, 179.9, 50);
+
+        assertEquals(2.5, new GeofenceEngine(Arrays.asList(tokyo, fiji)).getMinMagnitude(), 0);
+        assertEquals(Double.POSITIVE_INFINITY,
+                new GeofenceEngine(Collections.<Geofence>emptyList()).getMinMagnitude(), 0);
+    }
+
+    /** Fences of all shapes and sizes spread over the world, antimeridian and poles included   */
+    private static List<Geofence> randomFences(Random random, int count) {
+        List<Geofence> fences = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            double longitude = 360 * random.nextDouble() - 180;
+            double minMagnitude = random.nextInt(6);
+            if (i % 2 == 0) {
+                fences.add(Geofence.circle("c" + i, "c" + i, minMagnitude, latitude, longitude,
+                        10 + 490 * random.nextDouble()));
+            } else {
+                int vertices = 3 + random.nextInt(6);
+                double size = 0.2 + 5 * random.nextDouble();
+                double[] latitudes = new double[vertices];
+                double[] longitudes = new double[vertices];
+                for (int v = 0; v < vertices; ++v) {
+                    double angle = 2 * Math.PI * v / vertices;
+                    latitudes[v] = Math.max(-90, Math.min(90, latitude + size * Math.sin(angle)));
+                    longitudes[v] = longitude + size * Math.cos(angle);
+                    longitudes[v] -= 360 * Math.floor((longitudes[v] + 180) / 360);
+                }
+                fences.add(Geofence.polygon("p" + i, "p" + i, minMagnitude, latitudes, longitudes));
+            }
+        }
+        return fences;
+    }
+
+    private static List<Quake> randomQuakes(Random random, int count) {
+        List<Quake> quakes = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            quakes.add(quake(2 + 6 * random.nextDouble(), latitude, 360 * random.nextDouble() - 180));
+        }
+        return quakes;
+    }
+
+    @Test
+    public void indexFindsTheSameAlertsAsCheckingEveryFence() {
+        Random random = new Random(3);
+        List<Geofence> fences = randomFences(random, 2000);
+        List<Quake> quakes = randomQuakes(random, 5000);
+
+        int expected = 0;
+        for (Quake quake : quakes) {
+            for (Geofence fence : fences) {
+                if (fence.matches(quake.getLatitude(), quake.getLongitude(), quake.getMagnitude(null))) {
+                    ++expected;
+                }
+            }
+        }
+
+        assertTrue(expected > 0);
+        assertEquals(expected, new GeofenceEngine(fences).evaluate(quakes).size());
+    }
+
+    /** The number to beat is a million event-fence checks per second, both for a single
+     *  Geofence.matches call and for the engine, which covers every pair of a batch while
+     *  visiting only the fences of each event's cell
+     */
+    @Test
+    public void checksAMillionEventFencePairsPerSecond() {
+        Random random = new Random(5);
+        List<Geofence> fences = randomFences(random, 5000);
+        List<Quake> quakes = randomQuakes(random, 100000);
+        GeofenceEngine engine = new GeofenceEngine(fences);
+        List<Quake> sample = quakes.subList(0, 1000);
+
+        // Warm up, then take the best of a few runs
+        long bestDirectNanos = Long.MAX_VALUE;
+        long bestEngineNanos = Long.MAX_VALUE;
+        int matched = 0;
+        for (int run = 0; run < 4; ++run) {
+            long start = System.nanoTime();
+            for (Quake quake : sample) {
+                for (Geofence fence : fences) {
+                    if (fence.matches(quake.getLatitude(), quake.getLongitude(), quake.getMagnitude(null))) {
+                        ++matched;
+                    }
+                }
+            }
+            long direct = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            matched += engine.evaluate(quakes).size();
+            long indexed = System.nanoTime() - start;
+            if (run > 0) {
+                bestDirectNanos = Math.min(bestDirectNanos, direct);
+                bestEngineNanos = Math.min(bestEngineNanos, indexed);
+            }
+        }
+        assertTrue(matched > 0);
+
+        double directPerSecond = (double) sample.size() * fences.size() / (bestDirectNanos / 1e9);
+        double enginePerSecond = (double) quakes.size() * fences.size() / (bestEngineNanos / 1e9);
+        assertTrue(String.format("%.3g direct checks/s", directPerSecond), directPerSecond >= 1e6);
+        assertTrue(String.format("%.3g engine checks/s", enginePerSecond), enginePerSecond >= 1e6);
+    }
+}
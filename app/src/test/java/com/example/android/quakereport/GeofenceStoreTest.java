@@ -0,0 +1,83 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceStoreTest {
+
+    @Test
+    public void parsesCirclesAndPolygons() {
+        List<Geofence> fences = GeofenceStore.parseDefinitions(
+                "circle|Tokyo|5.0|35.68|139.69|100\n"
+                        + "\n"
+                        + "# Fiji, across the antimeridian\n"
+                        + "polygon | Fiji | 4.5 | -20 175; -20 -175; -15 -175; -15 175\n");
+
+        assertEquals(2, fences.size());
+        Geofence tokyo = fences.get(0);
+        assertEquals(Geofence.TYPE_CIRCLE, tokyo.getType());
+        assertEquals("Tokyo", tokyo.getName());
+        assertEquals(100, tokyo.getRadiusKm(), 1e-9);
+        assertTrue(tokyo.matches(35.7, 139.7, 5.0));
+        assertFalse(tokyo.matches(35.7, 139.7, 4.9));
+
+        Geofence fiji = fences.get(1);
+        assertEquals(Geofence.TYPE_POLYGON, fiji.getType());
+        assertEquals("Fiji", fiji.getName());
+        assertTrue(fiji.matches(-17, -179.9, 4.5));
+    }
+
+    @Test
+    public void skipsUnreadableLines() {
+        List<Geofence> fences = GeofenceStore.parseDefinitions(
+                "circle|Missing radius|5.0|35.68|139.69\n"
+                        + "circle|Bad latitude|5.0|135.68|139.69|100\n"
+                        + "circle|Bad number|five|35.68|139.69|100\n"
+                        + "circle|typo|5|10|1e10|100\n"
+                        + "circle|Infinite longitude|5|10|Infinity|100\n"
+                        + "circle|NaN longitude|5|10|NaN|100\n"
+                        + "circle|Longitude too far east|5|10|180.5|100\n"
+                        + "circle|Infinite radius|5|10|10|Infinity\n"
+                        + "polygon|Longitude too far west|4.5|-20 175;-20 -185;-15 -175\n"
+                        + "polygon|Infinite vertex|4.5|-20 175;-20 -Infinity;-15 -175\n"
+                        + "polygon|Two points|4.5|-20 175;-15 175\n"
+                        + "square|Unknown|4.5|0 0\n"
+                        + "circle|Kept|3|0|0|50\n");
+
+        assertEquals(1, fences.size());
+        assertEquals("Kept", fences.get(0).getName());
+    }
+
+    /** load() builds fences straight from the JSON file, so Geofence checks the ranges too     */
+    @Test(expected = IllegalArgumentException.class)
+    public void circleRejectsLongitudeOutOfRange() {
+        Geofence.circle("typo", "typo", 5, 10, 1e10, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void polygonRejectsNonFiniteLongitude() {
+        Geofence.polygon("typo", "typo", 5, new double[] {0, 1, 2}, new double[] {0, Double.POSITIVE_INFINITY, 2});
+    }
+
+    @Test
+    public void polygonLongitudesRoundTripAcrossTheAntimeridian() {
+        Geofence box = Geofence.polygon("box", "Box", 0,
+                new double[] {-20, -20, -15, -15}, new double[] {175, -175, -175, 175});
+        double[] longitudes = box.getLongitudes();
+
+        assertEquals(-175, longitudes[1], 1e-9);
+        Geofence again = Geofence.polygon("box", "Box", 0, box.getLatitudes(), longitudes);
+        assertTrue(again.matches(-17, 179.9, 5));
+    }
+
+    @Test
+    public void emptyTextDefinesNoFences() {
+        assertTrue(GeofenceStore.parseDefinitions("").isEmpty());
+        assertTrue(GeofenceStore.parseDefinitions(null).isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the order in which {@link QuakeDetailPrefetcher} starts its requests, with a detail
+ *  source that records each request and then blocks until the test lets it finish.
+ */
+public class QuakeDetailPrefetcherTest {
+
+    private static final long WAIT_MS = 5000;
+
+    /** Wait until the source has been asked for the given number of details      */
+    private static void awaitStarted(List<String> started, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (started.size() < count) {
+            assertTrue("only " + started + " started", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void visibleRowsStartFirstThenTheClosestOnes() throws InterruptedException {
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final Semaphore finish = new Semaphore(0);
+        QuakeDetailPrefetcher.DetailSource source = new QuakeDetailPrefetcher.DetailSource() {
+            @Override
+            public QuakeDetail fetch(String eventId) {
+                started.add(eventId);
+                finish.acquireUninterruptibly();
+                return null;
+            }
+        };
+        RequestPlanner planner = new RequestPlanner(new RequestPlanner.Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return System.nanoTime() / 1000000;
+            }
+        });
+        planner.setNetwork(RequestPlanner.TRANSPORT_WIFI, false, 0);
+        int margin = planner.prefetchMargin();
+        assertTrue(margin > 0);
+
+        List<Quake> quakes = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            quakes.add(new Quake(Integer.toString(i), 5, "", "", "", "https://usgs.example/" + i, 0, 0, 0));
+        }
+        QuakeDetailPrefetcher prefetcher = new QuakeDetailPrefetcher(null, planner, source);
+        prefetcher.setQuakes(quakes);
+        int firstVisible = 20;
+        int visibleCount = 4;
+        int expected = visibleCount + 2 * margin;
+
+        try {
+            prefetcher.onViewportChanged(firstVisible, visibleCount);
+
+            // Let one request finish at a time, so that exactly one worker takes the next task
+            awaitStarted(started, 2);
+            for (int count = 3; count <= expected; ++count) {
+                finish.release();
+                awaitStarted(started, count);
+            }
+            finish.release(2);
+        } finally {
+            prefetcher.shutdown();
+        }
+
+        assertEquals(expected, started.size());
+        int lastVisible = firstVisible + visibleCount - 1;
+        int previousDistance = 0;
+        for (int i = 0; i < started.size(); ++i) {
+            int position = Integer.parseInt(started.get(i));
+            int distance = Math.max(0, Math.max(firstVisible - position, position - lastVisible));
+            if (i < visibleCount) {
+                assertEquals(started.toString(), 0, distance);
+            }
+            assertTrue(started.toString(), distance >= previousDistance && distance <= margin);
+            previousDistance = distance;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QuakeMergerTest {
+
+    private static final long TIME = 1563847152340L;
+
+    private static Quake quake(String url, double magnitude, long time, double latitude, double longitude) {
+        return new Quake(url, magnitude, "", "", "", url, time, latitude, longitude);
+    }
+
+    @SafeVarargs
+    private static List<List<Quake>> providers(List<Quake>... lists) {
+        return new ArrayList<>(Arrays.asList(lists));
+    }
+
+    @Test
+    public void crossProviderDuplicateKeepsPreferredProvider() {
+        Quake usgs = quake("usgs/1", 5.1, TIME, 38.30, 142.10);
+        Quake emsc = quake("emsc/1", 5.0, TIME + 2000, 38.35, 142.05);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(emsc)));
+
+        assertEquals(1, merged.size());
+        assertSame(usgs, merged.get(0));
+    }
+
+    @Test
+    public void preferenceFollowsProviderOrderNotArrival() {
+        Quake usgs = quake("usgs/1", 5.1, TIME, 38.30, 142.10);
+        Quake emsc = quake("emsc/1", 5.0, TIME - 2000, 38.35, 142.05);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(emsc), Arrays.asList(usgs)));
+
+        assertEquals(1, merged.size());
+        assertSame(emsc, merged.get(0));
+    }
+
+    @Test
+    public void eventsOfOnlyOneProviderAreKept() {
+        Quake usgs = quake("usgs/1", 5.1, TIME, 38.30, 142.10);
+        Quake emsc = quake("emsc/2", 3.9, TIME + 3600000, 36.10, 28.00);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(emsc)));
+
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void sameProviderAftershocksAreKept() {
+        Quake mainShock = quake("usgs/1", 6.4, TIME, 35.70, -117.50);
+        Quake aftershock = quake("usgs/2", 4.2, TIME + 10000, 35.72, -117.55);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(mainShock, aftershock)));
+
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void sameProviderRepeatedUrlIsDropped() {
+        Quake first = quake("usgs/1", 6.4, TIME, 35.70, -117.50);
+        Quake again = quake("usgs/1", 6.4, TIME, 35.70, -117.50);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(first, again)));
+
+        assertEquals(1, merged.size());
+    }
+
+    @Test
+    public void oneEventMatchesAtMostOneEventOfAnotherProvider() {
+        Quake usgs = quake("usgs/1", 6.4, TIME, 35.70, -117.50);
+        Quake emscMain = quake("emsc/1", 6.3, TIME + 1000, 35.71, -117.51);
+        Quake emscAftershock = quake("emsc/2", 5.9, TIME + 20000, 35.75, -117.60);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(emscMain, emscAftershock)));
+
+        assertEquals(2, merged.size());
+        assertSame(usgs, merged.get(0));
+        assertSame(emscAftershock, merged.get(1));
+    }
+
+    @Test
+    public void distantOrLateEventsAreNotMerged() {
+        Quake usgs = quake("usgs/1", 5.1, TIME, 38.30, 142.10);
+        Quake far = quake("emsc/1", 5.1, TIME, 42.00, 142.10);
+        Quake late = quake("emsc/2", 5.1, TIME + 5 * 60000, 38.30, 142.10);
+        Quake otherSize = quake("emsc/3", 7.0, TIME, 38.30, 142.10);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(far, late, otherSize)));
+
+        assertEquals(4, merged.size());
+    }
+
+    @Test
+    public void missingMagnitudeDoesNotPreventMatch() {
+        Quake usgs = quake("usgs/1", Double.NaN, TIME, 38.30, 142.10);
+        Quake emsc = quake("emsc/1", 5.0, TIME + 2000, 38.35, 142.05);
+
+        assertEquals(1, QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(emsc))).size());
+    }
+
+    @Test
+    public void missingPositionIsKeptButNeverMatched() {
+        Quake usgs = quake("usgs/1", 5.1, TIME, Double.NaN, Double.NaN);
+        Quake emsc = quake("emsc/1", 5.0, TIME + 2000, 38.35, 142.05);
+
+        assertEquals(2, QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(emsc))).size());
+    }
+
+    @Test
+    public void duplicatesAcrossTheAntimeridianAreMerged() {
+        Quake usgs = quake("usgs/1", 4.6, TIME, -17.90, 179.95);
+        Quake emsc = quake("emsc/1", 4.5, TIME + 1000, -17.95, -179.95);
+
+        assertEquals(1, QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(emsc))).size());
+    }
+
+    @Test
+    public void duplicatesNearThePoleAreMergedAcrossLongitudes() {
+        // Both about 0.2 and 0.3 degrees from the pole, 150 degrees of longitude apart: ~55 km
+        Quake usgs = quake("usgs/1", 4.0, TIME, 89.80, 0.0);
+        Quake emsc = quake("emsc/1", 4.1, TIME + 1000, 89.70, 150.0);
+        Quake southern = quake("emsc/2", 4.1, TIME + 1000, -89.70, 150.0);
+
+        List<Quake> merged = QuakeMerger.merge(providers(Arrays.asList(usgs), Arrays.asList(emsc, southern)));
+
+        assertEquals(2, merged.size());
+        assertSame(southern, merged.get(1));
+    }
+
+    @Test
+    public void mergesOneHundredThousandEventsQuickly() {
+        Random random = new Random(42);
+        int perProvider = 50000;
+        List<Quake> usgs = new ArrayList<>(perProvider);
+        List<Quake> emsc = new ArrayList<>(perProvider);
+        for (int i = 0; i < perProvider; ++i) {
+            // Spread over a month and the whole globe, with a close copy in the second provider
+            long time = TIME + (long) (random.nextDouble() * 30L * 24 * 60 * 60 * 1000);
+            double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            double longitude = 360 * random.nextDouble() - 180;
+            double magnitude = 2 + 5 * random.nextDouble();
+            usgs.add(quake("usgs/" + i, magnitude, time, latitude, longitude));
+            emsc.add(quake("emsc/" + i, magnitude + 0.1, time + 1500, latitude + 0.05, longitude));
+        }
+
+        long start = System.nanoTime();
+        List<Quake> merged = QuakeMerger.merge(providers(usgs, emsc));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        // A random pair may happen to be close enough to match, so allow a few extra merges
+        assertTrue("merged " + merged.size(), merged.size() >= perProvider && merged.size() < perProvider + 100);
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Feeds {@link RequestPlanner} with loads made through {@link QueryUtils#makeHttpRequest}
+ *  against a local server throttled to a fixed byte rate, and checks what it plans next.
+ */
+public class RequestPlannerTest {
+
+    /** Clock of the real elapsed time, for loads over the network       */
+    private static final RequestPlanner.Clock REAL_CLOCK = new RequestPlanner.Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    /** Clock moved by hand, for the time based decisions      */
+    private static class ManualClock implements RequestPlanner.Clock {
+        long mNowMs = 1000;
+
+        @Override
+        public long elapsedRealtime() {
+            return mNowMs;
+        }
+    }
+
+    /** FDSN text lines with random ids and values, so gzip cannot shrink them much      */
+    private static String textBody(int events) {
+        Random random = new Random(7);
+        StringBuilder body = new StringBuilder("#EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|"
+                + "Contributor|ContributorID|MagType|Magnitude|MagAuthor|EventLocationName\n");
+        for (int i = 0; i < events; ++i) {
+            String id = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            body.append(id).append("|2019-07-23T0").append(random.nextInt(10)).append(':')
+                    .append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50)).append('.')
+                    .append(random.nextInt(1000)).append("Z|")
+                    .append(random.nextDouble() * 180 - 90).append('|')
+                    .append(random.nextDouble() * 360 - 180).append('|')
+                    .append(random.nextDouble() * 700).append("|EMSC|EMSC-RTS|EMSC|").append(id)
+                    .append("|mb|").append(random.nextInt(90) / 10.0).append("|EMSC|")
+                    .append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36).toUpperCase()).append('\n');
+        }
+        return body.toString();
+    }
+
+    /** GeoJSON features of about the size USGS sends       */
+    private static String geoJsonBody(int events) {
+        Random random = new Random(11);
+        StringBuilder body = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < events; ++i) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"type\":\"Feature\",\"id\":\"us").append(i).append("\",\"properties\":{")
+                    .append("\"mag\":").append(random.nextInt(90) / 10.0)
+                    .append(",\"place\":\"").append(random.nextInt(100)).append(" km of Somewhere\"")
+                    .append(",\"time\":").append(1563847152340L + i * 60000L)
+                    .append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us").append(i).append('"');
+            // Padding standing in for the fields the list does not read
+            for (int field = 0; field < 12; ++field) {
+                body.append(",\"field").append(field).append("\":\"")
+                        .append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36)).append('"');
+            }
+            body.append("},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(random.nextDouble() * 360 - 180).append(',')
+                    .append(random.nextDouble() * 180 - 90).append(",10]}}");
+        }
+        return body.append("]}").toString();
+    }
+
+    /** Make one single-connection load the way the loader does, and report it       */
+    private static String load(RequestPlanner planner, StubFdsnServer server, RequestPlanner.Plan plan)
+            throws IOException {
+        RequestPlanner.LoadStats stats = planner.startLoad();
+        String url = plan.buildShardUrls(server.getQueryUrl() + "?minmag=2.5", plan.getFormat()).get(0);
+        String response = QueryUtils.makeHttpRequest(QueryUtils.createUrl(url), plan.isGzip(), stats);
+        planner.recordLoad(stats, 1);
+        return response;
+    }
+
+    @Test
+    public void slowMeteredLinkPlansSmallCompressedTextPages() throws IOException {
+        RequestPlanner planner = new RequestPlanner(REAL_CLOCK);
+        planner.setNetwork(RequestPlanner.TRANSPORT_CELLULAR, true, 0);
+        int events = 400;
+        String body = textBody(events);
+
+        // The cellular seed is fast enough for GeoJSON, until the link is measured
+        RequestPlanner.Plan first = planner.plan(2000, 1);
+        assertEquals(RequestPlanner.FORMAT_GEOJSON, first.getFormat());
+        try (StubFdsnServer server = new StubFdsnServer(body, 200, 300, 20)) {
+            String response = load(planner, server, first);
+            assertEquals(body, response);
+            planner.recordPage(RequestPlanner.FORMAT_TEXT, response.length(), events);
+        }
+
+        RequestPlanner.Plan plan = planner.plan(2000, 1);
+        assertEquals(RequestPlanner.FORMAT_TEXT, plan.getFormat());
+        assertTrue(plan.isGzip());
+        assertEquals(1, plan.getShardCount());
+        assertTrue(plan.toString(), plan.getLimit() < 2000);
+    }
+
+    @Test
+    public void fastUnmeteredLinkPlansShardedUncompressedGeoJson() throws IOException {
+        RequestPlanner planner = new RequestPlanner(REAL_CLOCK);
+        // The system reports a pessimistic bandwidth, which only holds until a load is measured
+        planner.setNetwork(RequestPlanner.TRANSPORT_WIFI, false, 100);
+        int events = 300;
+        String body = geoJsonBody(events);
+
+        RequestPlanner.Plan first = planner.plan(10000, 1);
+        assertTrue(first.toString(), first.isGzip());
+        try (StubFdsnServer server = new StubFdsnServer(body, 200, 0, 2000)) {
+            String response = load(planner, server, first);
+            assertEquals(events, QueryUtils.extractEarthquakes(response).size());
+            planner.recordPage(RequestPlanner.FORMAT_GEOJSON, response.length(), events);
+            assertTrue(server.getRequests().get(0), server.getRequests().get(0).contains("format=geojson"));
+        }
+
+        RequestPlanner.Plan plan = planner.plan(10000, 1);
+        assertEquals(RequestPlanner.FORMAT_GEOJSON, plan.getFormat());
+        assertFalse(plan.isGzip());
+        assertTrue(plan.toString(), plan.getShardCount() > 1);
+        assertEquals(10000, plan.getLimit());
+
+        List<String> urls = plan.buildShardUrls("http://127.0.0.1/query?minmag=2.5", plan.getFormat());
+        assertEquals(plan.getShardCount(), urls.size());
+        assertTrue(urls.get(1), urls.get(1).startsWith("http://127.0.0.1/query?minmag=2.5&format=geojson&limit="));
+    }
+
+    @Test
+    public void recentListIsNotRefreshedOnAnyLink() {
+        ManualClock clock = new ManualClock();
+        RequestPlanner planner = new RequestPlanner(clock);
+        planner.setNetwork(RequestPlanner.TRANSPORT_WIFI, false, 0);
+
+        RequestPlanner.LoadStats stats = planner.startLoad();
+        stats.recordRequest(clock.mNowMs, clock.mNowMs + 50, clock.mNowMs + 100, 4096);
+        clock.mNowMs += 100;
+        planner.recordLoad(stats, 1);
+
+        clock.mNowMs += 60 * 1000;
+        assertFalse(planner.allowRefresh(planner.plan(100, 1)));
+        clock.mNowMs += 5 * 60 * 1000;
+        assertTrue(planner.allowRefresh(planner.plan(100, 1)));
+    }
+
+    @Test
+    public void meteredPrefetchStopsWhenTheBudgetIsUsedUp() {
+        ManualClock clock = new ManualClock();
+        RequestPlanner planner = new RequestPlanner(clock);
+
+        planner.setNetwork(RequestPlanner.TRANSPORT_WIFI, false, 0);
+        assertTrue(planner.prefetchMargin() > 0);
+
+        planner.setNetwork(RequestPlanner.TRANSPORT_CELLULAR, true, 0);
+        assertEquals(0, planner.prefetchMargin());
+        int allowed = 0;
+        while (planner.allowPrefetch()) {
+            ++allowed;
+            assertTrue("budget never ran out", allowed < 1000);
+        }
+        assertTrue(allowed > 0);
+
+        // The budget is hourly
+        clock.mNowMs += 61 * 60 * 1000;
+        assertTrue(planner.allowPrefetch());
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/** Local stand-in for an FDSN event service, used by the JVM tests.
+ *  Every request is answered with the same canned body, gzip compressed when the client asks
+ *  for it. The answer can be held back by a fixed delay before the headers and then sent at
+ *  a fixed byte rate, to simulate a slow link on localhost.
+ */
+class StubFdsnServer implements AutoCloseable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CHUNK_BYTES = 512;
+
+    private final ServerSocket mServerSocket;
+    private final byte[] mBody;
+    private final int mStatus;
+    private final long mHeaderDelayMs;
+    private final double mBytesPerMs;
+    private final List<String> mRequests = Collections.synchronizedList(new ArrayList<String>());
+
+    /** Constructor for class StubFdsnServer, which starts listening right away
+     * @param body Body of every answer
+     * @param status HTTP status of every answer
+     * @param headerDelayMs Time to wait before sending the headers, 0 for none
+     * @param bytesPerMs Rate the answer is sent at, 0 for as fast as possible
+     */
+    StubFdsnServer(String body, int status, long headerDelayMs, double bytesPerMs) throws IOException {
+        mBody = body.getBytes(UTF_8);
+        mStatus = status;
+        mHeaderDelayMs = headerDelayMs;
+        mBytesPerMs = bytesPerMs;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /** Answer every request at full speed with status 200      */
+    StubFdsnServer(String body) throws IOException {
+        this(body, 200, 0, 0);
+    }
+
+    /** Query url of the stub, to be given to an {@link FdsnProvider}      */
+    String getQueryUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/fdsnws/event/1/query";
+    }
+
+    /** Request paths received so far, with their query strings      */
+    List<String> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            // Shards come in parallel, so each connection gets its own thread
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException | InterruptedException ignored) {
+                        // The client went away, nothing to answer
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        boolean gzip = false;
+        for (String header = reader.readLine(); header != null && !header.isEmpty(); header = reader.readLine()) {
+            String lower = header.toLowerCase();
+            if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+                gzip = true;
+            }
+        }
+        String[] parts = requestLine.split(" ");
+        mRequests.add(parts.length > 1 ? parts[1] : requestLine);
+
+        byte[] body = mBody;
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipStream = new GZIPOutputStream(compressed);
+            gzipStream.write(mBody);
+            gzipStream.close();
+            body = compressed.toByteArray();
+        }
+
+        if (mHeaderDelayMs > 0) {
+            Thread.sleep(mHeaderDelayMs);
+        }
+        OutputStream output = socket.getOutputStream();
+        String headers = "HTTP/1.1 " + mStatus + " Stub\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                + "Connection: close\r\n\r\n";
+        output.write(headers.getBytes(UTF_8));
+        output.flush();
+
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += CHUNK_BYTES) {
+            output.write(body, offset, Math.min(CHUNK_BYTES, body.length - offset));
+            output.flush();
+            if (mBytesPerMs > 0) {
+                // Sleep until the bytes sent so far fit the rate
+                long dueMs = (long) ((offset + CHUNK_BYTES) / mBytesPerMs);
+                long elapsedMs = (System.nanoTime() - start) / 1000000;
+                if (dueMs > elapsedMs) {
+                    Thread.sleep(dueMs - elapsedMs);
+                }
+            }
+        }
+    }
+}